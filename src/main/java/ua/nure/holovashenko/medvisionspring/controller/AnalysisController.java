@@ -1,16 +1,20 @@
 package ua.nure.holovashenko.medvisionspring.controller;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.*;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import ua.nure.holovashenko.medvisionspring.dto.ComparisonReport;
 import ua.nure.holovashenko.medvisionspring.dto.ImageAnalysisResponse;
 import ua.nure.holovashenko.medvisionspring.dto.UpdateStatusRequest;
 import ua.nure.holovashenko.medvisionspring.entity.ImageAnalysis;
 import ua.nure.holovashenko.medvisionspring.enums.AnalysisStatus;
 import ua.nure.holovashenko.medvisionspring.service.AnalysisService;
+import ua.nure.holovashenko.medvisionspring.service.ReportCacheService;
 
+import java.io.IOException;
 import java.util.List;
 
 @RestController
@@ -68,19 +72,27 @@ public class AnalysisController {
 
     @PreAuthorize("hasAnyRole('DOCTOR', 'ADMIN', 'PATIENT')")
     @GetMapping("/compare/pdf")
-    public ResponseEntity<byte[]> downloadComparisonPdf(
+    public void downloadComparisonPdf(
             @RequestParam Long fromId,
-            @RequestParam Long toId) {
-        ComparisonReport report = analysisService.compareAnalyses(fromId, toId);
-        byte[] pdfBytes = analysisService.exportComparisonToPdf(report);
+            @RequestParam Long toId,
+            WebRequest webRequest,
+            HttpServletResponse response) throws IOException {
+        ReportCacheService.PdfReport report = analysisService.exportComparisonToPdf(fromId, toId);
+        // ETag лише для збереженої копії: звіт, що формується, може обірватися посередині,
+        // і клієнт не повинен закешувати неповний документ під цим тегом
+        if (report.cached() && webRequest.checkNotModified(report.etag())) {
+            return;
+        }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_PDF);
-        headers.setContentDisposition(ContentDisposition.builder("attachment")
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
                 .filename("comparison_" + fromId + "_vs_" + toId + ".pdf")
-                .build());
-
-        return new ResponseEntity<>(pdfBytes, headers, HttpStatus.OK);
+                .build()
+                .toString());
+        if (report.cached()) {
+            response.setHeader(HttpHeaders.ETAG, report.etag());
+        }
+        report.content().writeTo(response.getOutputStream());
     }
 
     @DeleteMapping("/{id}")
@@ -1,5 +1,6 @@
 package ua.nure.holovashenko.medvisionspring.controller;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -8,7 +9,10 @@ import org.springframework.web.multipart.MultipartFile;
 import ua.nure.holovashenko.medvisionspring.dto.AddNoteRequest;
 import ua.nure.holovashenko.medvisionspring.entity.ImageAnalysis;
 import ua.nure.holovashenko.medvisionspring.entity.Patient;
+import ua.nure.holovashenko.medvisionspring.enums.DossierFormat;
+import ua.nure.holovashenko.medvisionspring.service.AnalysisJobService;
 import ua.nure.holovashenko.medvisionspring.service.DoctorAnalysisService;
+import ua.nure.holovashenko.medvisionspring.service.DossierService;
 
 import java.io.IOException;
 import java.util.List;
@@ -19,13 +23,23 @@ import java.util.List;
 public class DoctorController {
 
     private final DoctorAnalysisService doctorAnalysisService;
+    private final DossierService dossierService;
+    private final AnalysisJobService analysisJobService;
 
     @PostMapping("/images/analyze")
     public ResponseEntity<String> uploadAndAnalyzeImage(
             @RequestParam("file") MultipartFile file,
             @RequestParam("patientId") Long patientId,
-            @RequestParam("doctorId") Long doctorId
+            @RequestParam("doctorId") Long doctorId,
+            @RequestParam(value = "async", defaultValue = "false") boolean async
     ) throws IOException {
+        if (async) {
+            // Відхиляємо одразу, поки аналіз ще не створено, а не після відповіді 202
+            analysisJobService.ensureCapacity();
+            ImageAnalysis analysis = doctorAnalysisService.submitAnalysis(file, patientId, doctorId);
+            return ResponseEntity.accepted().body("Analysis queued. ID: " + analysis.getImageAnalysisId());
+        }
+
         ImageAnalysis analysis = doctorAnalysisService.analyzeAndSave(file, patientId, doctorId);
         return ResponseEntity.ok("Analysis saved. ID: " + analysis.getImageAnalysisId());
     }
@@ -60,6 +74,15 @@ public class DoctorController {
         return ResponseEntity.ok(doctorAnalysisService.getPatientById(id));
     }
 
+    @GetMapping("/patients/{id}/dossier")
+    public void exportPatientDossier(@PathVariable Long id,
+                                     @RequestParam(value = "format", defaultValue = "ZIP") DossierFormat format,
+                                     HttpServletResponse response) throws IOException {
+        List<ImageAnalysis> analyses = dossierService.getPatientAnalyses(id);
+        DossierResponses.prepare(response, format, "dossier-" + id);
+        dossierService.writeDossier(analyses, format, response.getOutputStream());
+    }
+
     @PostMapping("/analyses/{analysesId}/notes")
     public ResponseEntity<Void> addNote(
             @PathVariable Long analysesId,
@@ -0,0 +1,20 @@
+package ua.nure.holovashenko.medvisionspring.controller;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import ua.nure.holovashenko.medvisionspring.enums.DossierFormat;
+
+final class DossierResponses {
+
+    private DossierResponses() {
+    }
+
+    // Довжина невідома наперед: архів передається частинами по мірі формування звітів
+    static void prepare(HttpServletResponse response, DossierFormat format, String baseName) {
+        boolean zip = format == DossierFormat.ZIP;
+        response.setContentType(zip ? "application/zip" : MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=" + baseName + (zip ? ".zip" : ".pdf"));
+    }
+}
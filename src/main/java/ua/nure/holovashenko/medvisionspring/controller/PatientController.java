@@ -1,5 +1,6 @@
 package ua.nure.holovashenko.medvisionspring.controller;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -7,8 +8,12 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import ua.nure.holovashenko.medvisionspring.entity.ImageAnalysis;
+import ua.nure.holovashenko.medvisionspring.enums.DossierFormat;
+import ua.nure.holovashenko.medvisionspring.service.DossierService;
 import ua.nure.holovashenko.medvisionspring.service.PatientService;
+import ua.nure.holovashenko.medvisionspring.service.ReportCacheService;
 
 import java.io.IOException;
 import java.util.List;
@@ -19,6 +24,7 @@ import java.util.List;
 public class PatientController {
 
     private final PatientService patientService;
+    private final DossierService dossierService;
 
     @GetMapping("/analyses")
     public ResponseEntity<List<ImageAnalysis>> getMyAnalyses(@AuthenticationPrincipal UserDetails userDetails) {
@@ -51,11 +57,30 @@ public class PatientController {
     }
 
     @GetMapping("/analyses/pdf/{id}")
-    public ResponseEntity<byte[]> exportAnalysisToPdf(@PathVariable Long id, @AuthenticationPrincipal UserDetails userDetails) throws IOException {
-        byte[] pdf = patientService.exportAnalysisToPdf(id, userDetails);
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=analysis-" + id + ".pdf")
-                .contentType(MediaType.APPLICATION_PDF)
-                .body(pdf);
+    public void exportAnalysisToPdf(@PathVariable Long id, @AuthenticationPrincipal UserDetails userDetails,
+                                    WebRequest webRequest, HttpServletResponse response) throws IOException {
+        ReportCacheService.PdfReport report = patientService.exportAnalysisToPdf(id, userDetails);
+        // ETag лише для збереженої копії: звіт, що формується, може обірватися посередині,
+        // і клієнт не повинен закешувати неповний документ під цим тегом
+        if (report.cached() && webRequest.checkNotModified(report.etag())) {
+            return;
+        }
+
+        // Документ пишеться у відповідь по мірі формування, без проміжного byte[]
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=analysis-" + id + ".pdf");
+        if (report.cached()) {
+            response.setHeader(HttpHeaders.ETAG, report.etag());
+        }
+        report.content().writeTo(response.getOutputStream());
+    }
+
+    @GetMapping("/dossier")
+    public void exportDossier(@RequestParam(value = "format", defaultValue = "ZIP") DossierFormat format,
+                              @AuthenticationPrincipal UserDetails userDetails,
+                              HttpServletResponse response) throws IOException {
+        List<ImageAnalysis> analyses = dossierService.getPatientAnalysesByEmail(userDetails.getUsername());
+        DossierResponses.prepare(response, format, "dossier");
+        dossierService.writeDossier(analyses, format, response.getOutputStream());
     }
 }
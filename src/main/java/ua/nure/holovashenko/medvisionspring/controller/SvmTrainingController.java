@@ -3,7 +3,12 @@ package ua.nure.holovashenko.medvisionspring.controller;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import ua.nure.holovashenko.medvisionspring.exception.ApiException;
+import ua.nure.holovashenko.medvisionspring.svm.ModelVersionInfo;
 import ua.nure.holovashenko.medvisionspring.svm.SvmService;
+import ua.nure.holovashenko.medvisionspring.svm.TrainingProgress;
+
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/svm")
@@ -14,6 +19,7 @@ public class SvmTrainingController {
 
     /**
      * Тренує повну модель і патч-модель на вхідному датасеті.
+     * Кожна натренована модель публікується реєстром як нова версія.
      * @param datasetPath шлях до базової папки з класами
      */
     @PostMapping("/train")
@@ -21,17 +27,51 @@ public class SvmTrainingController {
         try {
             // Тренування повної моделі
             svmService.trainFromDirectory(datasetPath, false);
-            svmService.saveModel("models/svm_full_model.xml", false);
 
             // Тренування патч-моделі
             svmService.trainFromDirectory(datasetPath, true);
-            svmService.saveModel("models/svm_patch_model.xml", true);
 
             return ResponseEntity.ok("Моделі успішно натреновано та збережено.");
+        } catch (ApiException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError()
                     .body("Помилка під час тренування: " + e.getMessage());
         }
     }
+
+    /**
+     * Повертає прогрес вилучення ознак під час тренування.
+     */
+    @GetMapping("/train/progress")
+    public ResponseEntity<TrainingProgress> getTrainingProgress() {
+        return ResponseEntity.ok(svmService.getTrainingProgress());
+    }
+
+    /**
+     * Повертає всі збережені версії моделей із позначкою активної.
+     */
+    @GetMapping("/models")
+    public ResponseEntity<List<ModelVersionInfo>> getModelVersions() {
+        return ResponseEntity.ok(svmService.listModelVersions());
+    }
+
+    /**
+     * Активує вказану версію моделі без перезапуску застосунку.
+     * @param type тип моделі: full або patch
+     */
+    @PostMapping("/models/{type}/{version}/activate")
+    public ResponseEntity<ModelVersionInfo> activateModelVersion(@PathVariable String type, @PathVariable String version) {
+        return ResponseEntity.ok(svmService.activateModelVersion(type, version));
+    }
+
+    /**
+     * Повертає попередню активну версію моделі.
+     * @param type тип моделі: full або patch
+     */
+    @PostMapping("/models/{type}/rollback")
+    public ResponseEntity<ModelVersionInfo> rollbackModel(@PathVariable String type) {
+        return ResponseEntity.ok(svmService.rollbackModel(type));
+    }
 }
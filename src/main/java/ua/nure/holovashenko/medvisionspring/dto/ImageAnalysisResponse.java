@@ -17,6 +17,8 @@ public class ImageAnalysisResponse {
     private LocalDateTime creationDatetime;
     private AnalysisStatus analysisStatus;
     private Integer diagnosisClass;
+    private Float analysisConfidence;
+    private String modelVersion;
 
     private Long imageFileId;
     private Long heatmapFileId;
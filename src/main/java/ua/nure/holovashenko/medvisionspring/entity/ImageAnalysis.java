@@ -53,6 +53,13 @@ public class ImageAnalysis {
     @Column(name = "diagnosis_class")
     private Integer diagnosisClass;
 
+    // Впевненість моделі саме в цьому діагнозі (null — модель не дає балів класів)
+    @Column(name = "analysis_confidence")
+    private Float analysisConfidence;
+
+    @Column(name = "model_version", length = 64)
+    private String modelVersion;
+
     @ManyToOne
     @JoinColumn(name = "image_file_id")
     private ImageFile imageFile;
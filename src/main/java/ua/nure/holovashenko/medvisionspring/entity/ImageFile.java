@@ -32,6 +32,9 @@ public class ImageFile {
     @Column(name = "image_file_type", length = 100, nullable = false)
     private String imageFileType;
 
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @Column(name = "uploaded_at", nullable = false)
     private LocalDateTime uploadedAt;
 
@@ -2,6 +2,8 @@ package ua.nure.holovashenko.medvisionspring.enums;
 
 public enum AnalysisStatus {
     PENDING,
+    PROCESSING,
+    FAILED,
     REVIEWED,
     REQUIRES_REVISION
 }
\ No newline at end of file
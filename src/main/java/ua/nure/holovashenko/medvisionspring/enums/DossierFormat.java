@@ -0,0 +1,6 @@
+package ua.nure.holovashenko.medvisionspring.enums;
+
+public enum DossierFormat {
+    ZIP,
+    PDF
+}
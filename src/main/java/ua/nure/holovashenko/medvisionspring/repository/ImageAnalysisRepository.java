@@ -4,7 +4,9 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 import ua.nure.holovashenko.medvisionspring.entity.ImageAnalysis;
 import ua.nure.holovashenko.medvisionspring.entity.User;
+import ua.nure.holovashenko.medvisionspring.enums.AnalysisStatus;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,4 +17,6 @@ public interface ImageAnalysisRepository extends JpaRepository<ImageAnalysis, Lo
     List<ImageAnalysis> findAllByDoctor(User doctor);
 
     List<ImageAnalysis> findAllByPatientAndViewedFalse(User patient);
+
+    List<ImageAnalysis> findAllByAnalysisStatusIn(Collection<AnalysisStatus> statuses);
 }
@@ -0,0 +1,23 @@
+package ua.nure.holovashenko.medvisionspring.service;
+
+import java.io.File;
+
+/**
+ * Подія про створений аналіз у статусі PENDING, який слід обробити асинхронно.
+ *
+ * @param analysisId       ідентифікатор ImageAnalysis
+ * @param imageFile        тимчасова копія завантаженого зображення; null для завдання,
+ *                         відновленого після перезапуску (зображення береться зі сховища)
+ * @param originalFilename оригінальна назва файлу
+ * @param contentType      MIME-тип зображення
+ */
+public record AnalysisJobEvent(Long analysisId, File imageFile, String originalFilename, String contentType) {
+
+    public static AnalysisJobEvent resumed(Long analysisId) {
+        return new AnalysisJobEvent(analysisId, null, null, null);
+    }
+
+    public boolean hasImageFile() {
+        return imageFile != null;
+    }
+}
@@ -0,0 +1,199 @@
+package ua.nure.holovashenko.medvisionspring.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ua.nure.holovashenko.medvisionspring.enums.AnalysisStatus;
+import ua.nure.holovashenko.medvisionspring.exception.ApiException;
+import ua.nure.holovashenko.medvisionspring.svm.SvmService;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пул обробників асинхронних аналізів. Завдання ставиться в чергу лише після коміту
+ * транзакції, що створила аналіз, і переводить його статус
+ * PENDING → PROCESSING → REQUIRES_REVISION (або FAILED у разі помилки).
+ * <p>
+ * Переповнення черги чи тимчасове перевантаження інференсу не робить аналіз FAILED:
+ * він лишається PENDING і повторюється із затримкою. Незавершені аналізи
+ * після перезапуску застосунку беруться в обробку знову.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AnalysisJobService {
+
+    private final DoctorAnalysisService doctorAnalysisService;
+    private final SvmService svmService;
+
+    @Value("${analysis.jobs.workers:2}")
+    private int workers;
+
+    @Value("${analysis.jobs.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${analysis.jobs.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${analysis.jobs.retry-delay-ms:2000}")
+    private long retryDelayMs;
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService retryScheduler;
+
+    // Аналізи, що стоять у черзі або виконуються, — щоб не поставити той самий двічі
+    private final Set<Long> queuedJobs = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Integer> failedAttempts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                workers, workers,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "analysis-job-" + threadNumber.incrementAndGet())
+        );
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "analysis-job-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        retryScheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    /**
+     * Перевіряє до створення аналізу, що черга може прийняти ще одне завдання.
+     *
+     * @throws ApiException 429, якщо черга заповнена
+     */
+    public void ensureCapacity() {
+        if (executor.getQueue().remainingCapacity() == 0) {
+            throw new ApiException("Черга аналізів заповнена. Спробуйте пізніше.", HttpStatus.TOO_MANY_REQUESTS);
+        }
+    }
+
+    @TransactionalEventListener
+    public void onAnalysisSubmitted(AnalysisJobEvent job) {
+        enqueue(job);
+    }
+
+    /**
+     * Повертає в обробку аналізи, які лишилися PENDING або PROCESSING після зупинки застосунку.
+     * Завдання ставляться в чергу лише після фонового завантаження моделей, інакше вони
+     * витратили б спроби на відповіді 503 під час завантаження.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinishedJobs() {
+        svmService.whenModelsLoaded(this::enqueueUnfinishedJobs);
+    }
+
+    private void enqueueUnfinishedJobs() {
+        List<Long> analysisIds = doctorAnalysisService.findUnfinishedJobIds();
+        if (!analysisIds.isEmpty()) {
+            log.info("Resuming {} unfinished analysis jobs", analysisIds.size());
+        }
+        analysisIds.forEach(id -> enqueue(AnalysisJobEvent.resumed(id)));
+    }
+
+    private void enqueue(AnalysisJobEvent job) {
+        if (executor.isShutdown() || !queuedJobs.add(job.analysisId())) {
+            return;
+        }
+        try {
+            executor.execute(() -> process(job));
+        } catch (RejectedExecutionException e) {
+            queuedJobs.remove(job.analysisId());
+            log.warn("Analysis job queue is full, analysis {} stays PENDING and will be retried", job.analysisId());
+            scheduleRetry(job, retryDelayMs);
+        }
+    }
+
+    private void process(AnalysisJobEvent submitted) {
+        AnalysisJobEvent job = submitted;
+        long retryDelay = -1;
+        try {
+            doctorAnalysisService.updateJobStatus(job.analysisId(), AnalysisStatus.PROCESSING);
+            if (!job.hasImageFile()) {
+                job = doctorAnalysisService.restoreJob(job.analysisId());
+            }
+            doctorAnalysisService.runAnalysisJob(job);
+            failedAttempts.remove(job.analysisId());
+            log.info("Analysis {} completed", job.analysisId());
+        } catch (ApiException e) {
+            retryDelay = isTransient(e) ? nextRetryDelay(job.analysisId()) : -1;
+            if (retryDelay < 0) {
+                markFailed(job, e);
+            } else {
+                log.warn("Analysis {} postponed for {} ms: {}", job.analysisId(), retryDelay, e.getMessage());
+                doctorAnalysisService.updateJobStatus(job.analysisId(), AnalysisStatus.PENDING);
+            }
+        } catch (Exception e) {
+            markFailed(job, e);
+        } finally {
+            queuedJobs.remove(job.analysisId());
+            if (retryDelay >= 0) {
+                scheduleRetry(job, retryDelay);
+            } else {
+                deleteTempFile(job);
+            }
+        }
+    }
+
+    // Перевантаження пулу інференсу минає саме, тож такий аналіз варто повторити
+    private static boolean isTransient(ApiException e) {
+        return e.getStatus() == HttpStatus.TOO_MANY_REQUESTS || e.getStatus() == HttpStatus.SERVICE_UNAVAILABLE;
+    }
+
+    // Експоненційна затримка; -1, коли спроби вичерпано
+    private long nextRetryDelay(Long analysisId) {
+        int attempt = failedAttempts.merge(analysisId, 1, Integer::sum);
+        if (attempt >= maxAttempts) {
+            failedAttempts.remove(analysisId);
+            return -1;
+        }
+        return retryDelayMs << Math.min(attempt - 1, 16);
+    }
+
+    private void scheduleRetry(AnalysisJobEvent job, long delayMs) {
+        try {
+            retryScheduler.schedule(() -> enqueue(job), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Застосунок зупиняється: аналіз лишається PENDING і відновиться після запуску
+            log.info("Analysis {} left PENDING during shutdown", job.analysisId());
+        }
+    }
+
+    private void markFailed(AnalysisJobEvent job, Exception e) {
+        log.error("Analysis {} failed", job.analysisId(), e);
+        doctorAnalysisService.updateJobStatus(job.analysisId(), AnalysisStatus.FAILED);
+    }
+
+    private void deleteTempFile(AnalysisJobEvent job) {
+        if (!job.hasImageFile()) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(job.imageFile().toPath());
+        } catch (Exception e) {
+            log.warn("Cannot delete temporary file {}", job.imageFile(), e);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.stereotype.Service;
 import ua.nure.holovashenko.medvisionspring.dto.ComparisonReport;
 import ua.nure.holovashenko.medvisionspring.dto.ImageAnalysisResponse;
 import ua.nure.holovashenko.medvisionspring.entity.ImageAnalysis;
+import ua.nure.holovashenko.medvisionspring.entity.ImageFile;
 import ua.nure.holovashenko.medvisionspring.entity.User;
 import ua.nure.holovashenko.medvisionspring.enums.AnalysisStatus;
 import ua.nure.holovashenko.medvisionspring.enums.UserRole;
@@ -14,8 +15,9 @@ import ua.nure.holovashenko.medvisionspring.exception.ApiException;
 import ua.nure.holovashenko.medvisionspring.repository.ImageAnalysisRepository;
 import ua.nure.holovashenko.medvisionspring.repository.UserRepository;
 import ua.nure.holovashenko.medvisionspring.svm.HeatmapGenerator;
+import ua.nure.holovashenko.medvisionspring.svm.HeatmapGrid;
 import ua.nure.holovashenko.medvisionspring.svm.ImageUtils;
-import ua.nure.holovashenko.medvisionspring.svm.SvmModelManager;
+import ua.nure.holovashenko.medvisionspring.svm.SvmService;
 import ua.nure.holovashenko.medvisionspring.util.pdf.PdfComparisonReportUtil;
 
 import java.util.List;
@@ -27,8 +29,9 @@ public class AnalysisService {
 
     private final ImageAnalysisRepository imageAnalysisRepository;
     private final UserRepository userRepository;
-    private final SvmModelManager modelManager;
+    private final SvmService svmService;
     private final HeatmapGenerator heatmapGenerator;
+    private final ReportCacheService reportCacheService;
 
     public List<ImageAnalysisResponse> getAllAnalyses() {
         return imageAnalysisRepository.findAll().stream()
@@ -85,23 +88,43 @@ public class AnalysisService {
                 .orElseThrow(() -> new ApiException("Аналіз FROM не знайдено", HttpStatus.NOT_FOUND));
         ImageAnalysis to = imageAnalysisRepository.findById(toId)
                 .orElseThrow(() -> new ApiException("Аналіз TO не знайдено", HttpStatus.NOT_FOUND));
+        requireCompleted(from);
+        requireCompleted(to);
 
         // Отримати діагнози
         int diagnosisClassFrom = from.getDiagnosisClass();
         int diagnosisClassTo = to.getDiagnosisClass();
 
         // Отримати теплові карти
-        double[][] heatmapFrom = modelManager.getHeatmapData(from.getImageFile().getImageFileUrl(), true);
-        double[][] heatmapTo = modelManager.getHeatmapData(to.getImageFile().getImageFileUrl(), true);
-        double[][] diffMap = subtractHeatmaps(heatmapFrom, heatmapTo);
-        Mat diffHeatmapMat = heatmapGenerator.generateHeatmap(null, diffMap);
-        String encodedDiffHeatmap = ImageUtils.encode(diffHeatmapMat);
-
-        Mat fromImage = ImageUtils.loadImage(from.getImageFile().getImageFileUrl());
-        Mat toImage = ImageUtils.loadImage(to.getImageFile().getImageFileUrl());
+        HeatmapGrid heatmapFrom = svmService.getHeatmapData(
+                from.getImageFile().getImageFileUrl(), from.getImageFile().getContentHash(), true);
+        HeatmapGrid heatmapTo = svmService.getHeatmapData(
+                to.getImageFile().getImageFileUrl(), to.getImageFile().getContentHash(), true);
+        HeatmapGrid diffMap = heatmapFrom.subtract(heatmapTo);
 
-        String fromImageBase64 = ImageUtils.encode(fromImage);
-        String toImageBase64 = ImageUtils.encode(toImage);
+        Mat diffHeatmapMat = heatmapGenerator.generateHeatmap(null, diffMap);
+        Mat fromImage = null;
+        Mat toImage = null;
+        String encodedDiffHeatmap;
+        String fromImageBase64;
+        String toImageBase64;
+        // Кеш зображень повертає копії, тож їх звільняє викликач. PointerScope тут не підходить:
+        // при промаху в ньому опинилася б і матриця, яку кеш зберігає в себе
+        try {
+            encodedDiffHeatmap = ImageUtils.encode(diffHeatmapMat);
+            fromImage = svmService.loadStoredImage(from.getImageFile().getImageFileUrl());
+            toImage = svmService.loadStoredImage(to.getImageFile().getImageFileUrl());
+            fromImageBase64 = ImageUtils.encode(fromImage);
+            toImageBase64 = ImageUtils.encode(toImage);
+        } finally {
+            diffHeatmapMat.release();
+            if (fromImage != null) {
+                fromImage.release();
+            }
+            if (toImage != null) {
+                toImage.release();
+            }
+        }
 
         // Створити DTO
         ComparisonReport report = new ComparisonReport();
@@ -134,31 +157,51 @@ public class AnalysisService {
         return report;
     }
 
-    private double[][] subtractHeatmaps(double[][] heatmapA, double[][] heatmapB) {
-        int rows = heatmapA.length;
-        int cols = heatmapA[0].length;
-        double[][] diff = new double[rows][cols];
-
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                diff[i][j] = heatmapA[i][j] - heatmapB[i][j];
-            }
-        }
-        return diff;
-    }
-
     public byte[] exportComparisonToPdf(ComparisonReport report) {
         return PdfComparisonReportUtil.generateComparisonPdf(report);
     }
 
+    /**
+     * PDF-порівняння: версія (ETag) залежить від обох аналізів і версії моделі теплових карт;
+     * порівняння обчислюється лише тоді, коли збереженої копії цієї версії немає.
+     */
+    public ReportCacheService.PdfReport exportComparisonToPdf(Long fromId, Long toId) {
+        ImageAnalysis from = imageAnalysisRepository.findById(fromId)
+                .orElseThrow(() -> new ApiException("Аналіз FROM не знайдено", HttpStatus.NOT_FOUND));
+        ImageAnalysis to = imageAnalysisRepository.findById(toId)
+                .orElseThrow(() -> new ApiException("Аналіз TO не знайдено", HttpStatus.NOT_FOUND));
+        // Документ формується вже під час запису відповіді, тож перевірка — до початку потоку
+        requireCompleted(from);
+        requireCompleted(to);
+
+        return reportCacheService.comparisonReport(from, to, svmService.getHeatmapVersion(true),
+                out -> PdfComparisonReportUtil.writeComparisonPdf(compareAnalyses(fromId, toId), out));
+    }
+
     public boolean deleteAnalysis(Long id) {
-        if (!imageAnalysisRepository.existsById(id)) {
+        Optional<ImageAnalysis> analysis = imageAnalysisRepository.findById(id);
+        if (analysis.isEmpty()) {
             return false;
         }
         imageAnalysisRepository.deleteById(id);
+
+        ImageFile imageFile = analysis.get().getImageFile();
+        if (imageFile != null) {
+            svmService.evictStoredImage(imageFile.getImageFileUrl());
+        }
         return true;
     }
 
+    /**
+     * Аналіз, поставлений у чергу або завершений помилкою, ще не має діагнозу і теплової карти.
+     */
+    static void requireCompleted(ImageAnalysis analysis) {
+        if (analysis.getDiagnosisClass() == null || analysis.getHeatmapFile() == null) {
+            throw new ApiException("Аналіз " + analysis.getImageAnalysisId()
+                    + " ще обробляється або завершився помилкою", HttpStatus.CONFLICT);
+        }
+    }
+
     private ImageAnalysisResponse mapToDto(ImageAnalysis analysis) {
         ImageAnalysisResponse dto = new ImageAnalysisResponse();
         dto.setImageAnalysisId(analysis.getImageAnalysisId());
@@ -169,6 +212,8 @@ public class AnalysisService {
         dto.setAnalysisDiagnosis(analysis.getAnalysisDiagnosis());
         dto.setTreatmentRecommendations(analysis.getTreatmentRecommendations());
         dto.setDiagnosisClass(analysis.getDiagnosisClass());
+        dto.setAnalysisConfidence(analysis.getAnalysisConfidence());
+        dto.setModelVersion(analysis.getModelVersion());
         dto.setCreationDatetime(analysis.getCreationDatetime());
         dto.setAnalysisStatus(analysis.getAnalysisStatus());
 
@@ -3,6 +3,7 @@ package ua.nure.holovashenko.medvisionspring.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -13,13 +14,18 @@ import ua.nure.holovashenko.medvisionspring.exception.ApiException;
 import ua.nure.holovashenko.medvisionspring.repository.*;
 import ua.nure.holovashenko.medvisionspring.storage.BlobStorageService;
 import ua.nure.holovashenko.medvisionspring.storage.ResilientBlobStorageService;
+import ua.nure.holovashenko.medvisionspring.svm.AnalysisImageContext;
 import ua.nure.holovashenko.medvisionspring.svm.DiagnosisInfo;
+import ua.nure.holovashenko.medvisionspring.svm.InferenceResult;
 import ua.nure.holovashenko.medvisionspring.svm.MetricsCalculator;
 import ua.nure.holovashenko.medvisionspring.svm.ModelMetrics;
 import ua.nure.holovashenko.medvisionspring.svm.SvmService;
+import ua.nure.holovashenko.medvisionspring.util.hash.ContentHashUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -40,8 +46,11 @@ public class DoctorAnalysisService {
     private final DiagnosisHistoryRepository diagnosisHistoryRepository;
     private final ImageFileRepository imageFileRepository;
     private final AnalysisNoteRepository analysisNoteRepository;
+    private final ApplicationEventPublisher eventPublisher;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    private static final String UPLOAD_PREFIX = "images/upload-";
+
     @Transactional
     public ImageAnalysis analyzeAndSave(MultipartFile file, Long patientId, Long doctorId) throws IOException {
         File tempFile = File.createTempFile("upload-", ".png");
@@ -53,58 +62,165 @@ public class DoctorAnalysisService {
                 .orElseThrow(() -> new ApiException("Лікар не знайдений", HttpStatus.NOT_FOUND));
 
 
-        int prediction = svmService.classify(tempFile, false);
+        try (AnalysisImageContext context = svmService.createContext(tempFile)) {
+            // Класифікуємо до завантаження у сховище, щоб не зберігати файл при помилці моделі;
+            // результат кешується в контексті й повторно використовується нижче
+            svmService.classify(context, false);
+
+            ImageAnalysis analysis = createPendingAnalysis(
+                    tempFile, file.getOriginalFilename(), file.getContentType(), patientUser, doctorUser);
+            return completeAnalysis(analysis, context, tempFile, file.getOriginalFilename(), file.getContentType());
+        }
+    }
+
+    /**
+     * Асинхронний режим: зберігає завантажений файл і аналіз у статусі PENDING та
+     * одразу повертає його. Класифікацію виконує {@link AnalysisJobService} після коміту транзакції.
+     */
+    @Transactional
+    public ImageAnalysis submitAnalysis(MultipartFile file, Long patientId, Long doctorId) throws IOException {
+        User patientUser = userRepository.findById(patientId)
+                .orElseThrow(() -> new ApiException("Пацієнт не знайдений", HttpStatus.NOT_FOUND));
+        User doctorUser = userRepository.findById(doctorId)
+                .orElseThrow(() -> new ApiException("Лікар не знайдений", HttpStatus.NOT_FOUND));
+
+        File tempFile = File.createTempFile("upload-", ".png");
+        file.transferTo(tempFile);
+
+        ImageAnalysis analysis = createPendingAnalysis(
+                tempFile, file.getOriginalFilename(), file.getContentType(), patientUser, doctorUser);
+
+        eventPublisher.publishEvent(new AnalysisJobEvent(
+                analysis.getImageAnalysisId(), tempFile, file.getOriginalFilename(), file.getContentType()));
+        return analysis;
+    }
+
+    /**
+     * Виконує аналіз, створений через {@link #submitAnalysis}. Викликається з пулу обробників.
+     */
+    @Transactional
+    public ImageAnalysis runAnalysisJob(AnalysisJobEvent job) {
+        ImageAnalysis analysis = imageAnalysisRepository.findById(job.analysisId())
+                .orElseThrow(() -> new ApiException("Аналіз не знайдено", HttpStatus.NOT_FOUND));
+
+        try (AnalysisImageContext context = svmService.createContext(job.imageFile())) {
+            return completeAnalysis(analysis, context, job.imageFile(), job.originalFilename(), job.contentType());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        String imageObjectName = "images/upload-" + System.currentTimeMillis() + "-" + file.getOriginalFilename();
-        String imageUrl = blobStorageService.uploadFile(tempFile, imageObjectName, file.getContentType());
+    public List<Long> findUnfinishedJobIds() {
+        return imageAnalysisRepository
+                .findAllByAnalysisStatusIn(List.of(AnalysisStatus.PENDING, AnalysisStatus.PROCESSING)).stream()
+                // Лікар може повернути завершений аналіз у PENDING; повторно класифікувати його не треба
+                .filter(analysis -> analysis.getHeatmapFile() == null)
+                .map(ImageAnalysis::getImageAnalysisId)
+                .toList();
+    }
+
+    /**
+     * Відновлює завдання аналізу після перезапуску: тимчасової копії зображення вже немає,
+     * тож воно завантажується зі сховища.
+     */
+    public AnalysisJobEvent restoreJob(Long analysisId) {
+        ImageFile image = imageAnalysisRepository.findById(analysisId)
+                .map(ImageAnalysis::getImageFile)
+                .orElseThrow(() -> new ApiException("Аналіз не знайдено", HttpStatus.NOT_FOUND));
+
+        try {
+            File tempFile = File.createTempFile("upload-", ".png");
+            Files.write(tempFile.toPath(), blobStorageService.downloadFileByName(image.getImageFileName()));
+            return new AnalysisJobEvent(analysisId, tempFile, originalFilename(image), image.getImageFileType());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Назва об'єкта має вигляд images/upload-<мітка часу>-<оригінальна назва>
+    private static String originalFilename(ImageFile image) {
+        String objectName = image.getImageFileName();
+        int timestampEnd = objectName.indexOf('-', UPLOAD_PREFIX.length());
+        return objectName.startsWith(UPLOAD_PREFIX) && timestampEnd >= 0
+                ? objectName.substring(timestampEnd + 1)
+                : objectName.substring(objectName.lastIndexOf('/') + 1);
+    }
+
+    public void updateJobStatus(Long analysisId, AnalysisStatus status) {
+        imageAnalysisRepository.findById(analysisId).ifPresent(analysis -> {
+            analysis.setAnalysisStatus(status);
+            imageAnalysisRepository.save(analysis);
+        });
+    }
+
+    private ImageAnalysis createPendingAnalysis(File tempFile, String originalFilename, String contentType,
+                                                User patientUser, User doctorUser) throws IOException {
+        String imageObjectName = UPLOAD_PREFIX + System.currentTimeMillis() + "-" + originalFilename;
+        String imageUrl = blobStorageService.uploadFile(tempFile, imageObjectName, contentType);
 
         ImageFile imageFile = ImageFile.builder()
                 .imageFileName(imageObjectName)
-                .imageFileType(file.getContentType())
+                .imageFileType(contentType)
                 .uploadedAt(LocalDateTime.now())
                 .imageFileUrl(imageUrl)
+                .contentHash(ContentHashUtil.sha256(tempFile))
                 .uploadedBy(doctorUser)
                 .build();
         imageFileRepository.save(imageFile);
 
-        var heatmapMat = svmService.generateHeatmap(tempFile, true);
+        ImageAnalysis analysis = ImageAnalysis.builder()
+                .imageFile(imageFile)
+                .creationDatetime(LocalDateTime.now())
+                .analysisStatus(AnalysisStatus.PENDING)
+                .patient(patientUser)
+                .doctor(doctorUser)
+                .build();
+
+        return imageAnalysisRepository.save(analysis);
+    }
+
+    private ImageAnalysis completeAnalysis(ImageAnalysis analysis, AnalysisImageContext context, File tempFile,
+                                           String originalFilename, String contentType) throws IOException {
+        User patientUser = analysis.getPatient();
+        User doctorUser = analysis.getDoctor();
+
+        InferenceResult inference = svmService.infer(context, false);
+        int prediction = inference.label();
+
+        var heatmapMat = svmService.generateHeatmap(context, true, analysis.getImageFile().getContentHash());
         File heatmapFile = File.createTempFile("heatmap-", ".png");
         svmService.saveMatToFile(heatmapMat, heatmapFile);
 
-        String heatmapObjectName = "heatmaps/heatmap-" + System.currentTimeMillis() + "-" + file.getOriginalFilename();
-        String heatmapUrl = blobStorageService.uploadFile(heatmapFile, heatmapObjectName, file.getContentType());
+        String heatmapObjectName = "heatmaps/heatmap-" + System.currentTimeMillis() + "-" + originalFilename;
+        String heatmapUrl = blobStorageService.uploadFile(heatmapFile, heatmapObjectName, contentType);
 
         ImageFile heatmapImage = ImageFile.builder()
                 .imageFileName(heatmapObjectName)
-                .imageFileType(file.getContentType())
+                .imageFileType(contentType)
                 .uploadedAt(LocalDateTime.now())
                 .imageFileUrl(heatmapUrl)
                 .uploadedBy(doctorUser)
                 .build();
         imageFileRepository.save(heatmapImage);
 
-        ModelMetrics metrics = svmService.loadMetrics("svm-models/full_metrics.json");
+        ModelMetrics metrics = svmService.loadMetrics(context);
         MetricsCalculator.ClassMetrics classMetrics = metrics.perClassMetrics().get(prediction);
         float precision = classMetrics != null ? (float) classMetrics.precision() : 0f;
         float recall = classMetrics != null ? (float) classMetrics.recall() : 0f;
 
         DiagnosisInfo diagnosisText = CLASS_LABELS.getOrDefault(prediction, new DiagnosisInfo());
 
-        ImageAnalysis analysis = ImageAnalysis.builder()
-                .imageFile(imageFile)
-                .heatmapFile(heatmapImage)
-                .analysisDetails(diagnosisText.getAnalysisDetails())
-                .analysisDiagnosis(diagnosisText.getAnalysisDiagnosis())
-                .treatmentRecommendations(diagnosisText.getTreatmentRecommendations())
-                .analysisAccuracy((float) metrics.accuracy())
-                .analysisPrecision(precision)
-                .analysisRecall(recall)
-                .creationDatetime(LocalDateTime.now())
-                .analysisStatus(AnalysisStatus.REQUIRES_REVISION)
-                .diagnosisClass(prediction)
-                .patient(patientUser)
-                .doctor(doctorUser)
-                .build();
+        analysis.setHeatmapFile(heatmapImage);
+        analysis.setAnalysisDetails(diagnosisText.getAnalysisDetails());
+        analysis.setAnalysisDiagnosis(diagnosisText.getAnalysisDiagnosis());
+        analysis.setTreatmentRecommendations(diagnosisText.getTreatmentRecommendations());
+        analysis.setAnalysisAccuracy((float) metrics.accuracy());
+        analysis.setAnalysisPrecision(precision);
+        analysis.setAnalysisRecall(recall);
+        analysis.setAnalysisStatus(AnalysisStatus.REQUIRES_REVISION);
+        analysis.setDiagnosisClass(prediction);
+        analysis.setAnalysisConfidence(inference.confidenceOrNull());
+        analysis.setModelVersion(context.classifiedBy().version());
 
         ImageAnalysis savedAnalysis = imageAnalysisRepository.save(analysis);
 
@@ -133,13 +249,16 @@ public class DoctorAnalysisService {
     }
 
     public Optional<byte[]> getHeatmapBytes(Long id) throws IOException {
-        return imageAnalysisRepository.findById(id).map(a -> {
-            try {
-                return blobStorageService.downloadFileFromBlobUrl(a.getHeatmapFile().getImageFileUrl());
-            } catch (IOException e) {
-                throw new RuntimeException("Cannot read heatmap from Azure Blob Storage", e);
-            }
-        });
+        return imageAnalysisRepository.findById(id)
+                // Для аналізу, що ще обробляється, теплової карти немає
+                .filter(a -> a.getHeatmapFile() != null)
+                .map(a -> {
+                    try {
+                        return blobStorageService.downloadFileFromBlobUrl(a.getHeatmapFile().getImageFileUrl());
+                    } catch (IOException e) {
+                        throw new RuntimeException("Cannot read heatmap from Azure Blob Storage", e);
+                    }
+                });
     }
 
     public boolean updateDiagnosis(Long id, String diagnosis) {
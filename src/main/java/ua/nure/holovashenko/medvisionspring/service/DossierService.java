@@ -0,0 +1,278 @@
+package ua.nure.holovashenko.medvisionspring.service;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.pdf.PdfCopy;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.RandomAccessFileOrArray;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import ua.nure.holovashenko.medvisionspring.entity.ImageAnalysis;
+import ua.nure.holovashenko.medvisionspring.entity.User;
+import ua.nure.holovashenko.medvisionspring.enums.DossierFormat;
+import ua.nure.holovashenko.medvisionspring.enums.UserRole;
+import ua.nure.holovashenko.medvisionspring.exception.ApiException;
+import ua.nure.holovashenko.medvisionspring.repository.ImageAnalysisRepository;
+import ua.nure.holovashenko.medvisionspring.repository.UserRepository;
+import ua.nure.holovashenko.medvisionspring.util.pdf.PdfAnalysisReportGenerator;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Експорт усіх аналізів пацієнта одним файлом: ZIP з окремими PDF або об'єднаний PDF.
+ * <p>
+ * Звіти формуються паралельно (не більше concurrency одночасно на запит) у тимчасові файли
+ * через кеш звітів і одразу передаються у відповідь, тож ні архів, ні об'єднаний документ
+ * повністю в пам'яті не тримаються.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DossierService {
+
+    private final ImageAnalysisRepository imageAnalysisRepository;
+    private final UserRepository userRepository;
+    private final ReportCacheService reportCacheService;
+
+    @Value("${reports.dossier.concurrency:4}")
+    private int concurrency;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                concurrency, concurrency,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "dossier-render-" + threadNumber.incrementAndGet())
+        );
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Завершені аналізи пацієнта для досьє.
+     *
+     * @throws ApiException 404, якщо експортувати нічого (до того, як відповідь стане PDF чи ZIP)
+     */
+    public List<ImageAnalysis> getPatientAnalysesByEmail(String email) {
+        User patient = userRepository.findByEmail(email)
+                .orElseThrow(() -> new ApiException("Пацієнта не знайдено", HttpStatus.NOT_FOUND));
+        return completedAnalyses(patient);
+    }
+
+    public List<ImageAnalysis> getPatientAnalyses(Long patientId) {
+        User patient = userRepository.findById(patientId)
+                .filter(user -> user.getUserRole() == UserRole.PATIENT)
+                .orElseThrow(() -> new ApiException("Пацієнта не знайдено", HttpStatus.NOT_FOUND));
+        return completedAnalyses(patient);
+    }
+
+    public void writeDossier(List<ImageAnalysis> analyses, DossierFormat format, OutputStream out) throws IOException {
+        if (format == DossierFormat.PDF) {
+            writeCombinedPdf(analyses, out);
+        } else {
+            writeZip(analyses, out);
+        }
+    }
+
+    /**
+     * ZIP-архів: записи додаються в порядку завершення формування.
+     */
+    public void writeZip(List<ImageAnalysis> analyses, OutputStream out) throws IOException {
+        CompletionService<RenderedReport> completion = new ExecutorCompletionService<>(executor);
+        Deque<ImageAnalysis> pending = new ArrayDeque<>(analyses);
+        int inFlight = 0;
+
+        // finish() лише після успіху: обірваний архів не повинен виглядати завершеним
+        ZipOutputStream zip = new ZipOutputStream(out);
+        boolean completed = false;
+        try {
+            while (inFlight < concurrency && !pending.isEmpty()) {
+                submit(completion, pending.poll());
+                inFlight++;
+            }
+
+            while (inFlight > 0) {
+                Future<RenderedReport> done = next(completion);
+                inFlight--;
+                RenderedReport report = await(done);
+                if (!pending.isEmpty()) {
+                    submit(completion, pending.poll());
+                    inFlight++;
+                }
+
+                try {
+                    zip.putNextEntry(new ZipEntry("analysis-" + report.analysis().getImageAnalysisId() + ".pdf"));
+                    Files.copy(report.file().toPath(), zip);
+                    zip.closeEntry();
+                } finally {
+                    report.delete();
+                }
+            }
+            zip.finish();
+            completed = true;
+        } finally {
+            if (!completed) {
+                drain(completion, inFlight);
+            }
+        }
+    }
+
+    /**
+     * Об'єднаний PDF у хронологічному порядку: наступні звіти формуються заздалегідь,
+     * а сторінки готових копіюються у вихідний документ по черзі.
+     */
+    public void writeCombinedPdf(List<ImageAnalysis> analyses, OutputStream out) throws IOException {
+        Deque<Future<RenderedReport>> window = new ArrayDeque<>();
+        Deque<ImageAnalysis> pending = new ArrayDeque<>(analyses);
+
+        Document document = new Document();
+        PdfCopy copy = new PdfCopy(document, out);
+        copy.setCloseStream(false);
+        document.open();
+
+        // close() дописує кінець документа, тому лише після успіху: інакше обірваний PDF виглядав би цілим
+        boolean completed = false;
+        try {
+            while (!pending.isEmpty() || !window.isEmpty()) {
+                while (window.size() < concurrency && !pending.isEmpty()) {
+                    ImageAnalysis analysis = pending.poll();
+                    window.add(executor.submit(() -> render(analysis)));
+                }
+
+                RenderedReport report = await(window.poll());
+                try {
+                    appendPages(copy, report.file());
+                } finally {
+                    report.delete();
+                }
+            }
+            document.close();
+            completed = true;
+        } finally {
+            if (!completed) {
+                window.forEach(DossierService::discard);
+            }
+        }
+    }
+
+    private void appendPages(PdfCopy copy, File pdf) throws IOException {
+        PdfReader reader = new PdfReader(new RandomAccessFileOrArray(pdf.getAbsolutePath(), false, true), null);
+        try {
+            for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                copy.addPage(copy.getImportedPage(reader, page));
+            }
+            copy.freeReader(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void submit(CompletionService<RenderedReport> completion, ImageAnalysis analysis) {
+        completion.submit(() -> render(analysis));
+    }
+
+    private RenderedReport render(ImageAnalysis analysis) throws IOException {
+        File file = File.createTempFile("dossier-" + analysis.getImageAnalysisId() + "-", ".pdf");
+        try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file))) {
+            reportCacheService.analysisReport(analysis, out -> PdfAnalysisReportGenerator.writeAnalysisPdf(analysis, out))
+                    .content()
+                    .writeTo(fileOut);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+        return new RenderedReport(analysis, file);
+    }
+
+    private static Future<RenderedReport> next(CompletionService<RenderedReport> completion) throws IOException {
+        try {
+            return completion.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Експорт звітів перервано");
+        }
+    }
+
+    private static RenderedReport await(Future<RenderedReport> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Експорт звітів перервано");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Report rendering failed", e.getCause());
+        }
+    }
+
+    // Прибирає тимчасові файли завдань, що залишились після помилки
+    private static void drain(CompletionService<RenderedReport> completion, int inFlight) {
+        for (int i = 0; i < inFlight; i++) {
+            try {
+                discard(completion.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Чекає на завершення формування (скасування не зупинило б запис файлу) і видаляє результат
+    private static void discard(Future<RenderedReport> future) {
+        try {
+            future.get().delete();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.debug("Dossier entry discarded: {}", e.getMessage());
+        }
+    }
+
+    private List<ImageAnalysis> completedAnalyses(User patient) {
+        List<ImageAnalysis> analyses = imageAnalysisRepository.findAllByPatient(patient).stream()
+                .filter(analysis -> analysis.getHeatmapFile() != null)
+                .sorted(Comparator.comparing(ImageAnalysis::getCreationDatetime))
+                .toList();
+        if (analyses.isEmpty()) {
+            throw new ApiException("Немає завершених аналізів для експорту", HttpStatus.NOT_FOUND);
+        }
+        return analyses;
+    }
+
+    private record RenderedReport(ImageAnalysis analysis, File file) {
+
+        void delete() {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                log.warn("Cannot delete temporary report {}", file, e);
+            }
+        }
+    }
+}
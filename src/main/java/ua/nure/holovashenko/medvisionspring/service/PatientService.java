@@ -21,6 +21,7 @@ public class PatientService {
     private final ImageAnalysisRepository imageAnalysisRepository;
     private final UserRepository userRepository;
     private final ResilientBlobStorageService blobStorageService;
+    private final ReportCacheService reportCacheService;
 
     public List<ImageAnalysis> getAnalyses(UserDetails userDetails) {
         User patient = userRepository.findByEmail(userDetails.getUsername())
@@ -61,19 +62,29 @@ public class PatientService {
     }
 
     public Optional<byte[]> getHeatmapBytes(Long id, UserDetails userDetails) throws IOException {
-        return getAnalysisById(id, userDetails).map(a -> {
-            try {
-                return blobStorageService.downloadFileFromBlobUrl(a.getHeatmapFile().getImageFileUrl());
-            } catch (IOException e) {
-                throw new RuntimeException("Cannot read heatmap from Azure Blob Storage", e);
-            }
-        });
+        return getAnalysisById(id, userDetails)
+                // Для аналізу, що ще обробляється, теплової карти немає
+                .filter(a -> a.getHeatmapFile() != null)
+                .map(a -> {
+                    try {
+                        return blobStorageService.downloadFileFromBlobUrl(a.getHeatmapFile().getImageFileUrl());
+                    } catch (IOException e) {
+                        throw new RuntimeException("Cannot read heatmap from Azure Blob Storage", e);
+                    }
+                });
     }
 
-    public byte[] exportAnalysisToPdf(Long id, UserDetails userDetails) throws IOException {
+    /**
+     * PDF-звіт аналізу: версія (ETag) обчислюється одразу, а документ записується у потік
+     * із кешу або генерується лише під час запису.
+     */
+    public ReportCacheService.PdfReport exportAnalysisToPdf(Long id, UserDetails userDetails) {
         ImageAnalysis analysis = getAnalysisById(id, userDetails)
                 .orElseThrow(() -> new IllegalArgumentException("Аналіз не знайдено або немає доступу"));
+        // Без перевірки NPE виникла б уже після початку потокової відповіді
+        AnalysisService.requireCompleted(analysis);
 
-        return PdfAnalysisReportGenerator.generateAnalysisPdf(analysis);
+        return reportCacheService.analysisReport(analysis,
+                out -> PdfAnalysisReportGenerator.writeAnalysisPdf(analysis, out));
     }
 }
@@ -0,0 +1,220 @@
+package ua.nure.holovashenko.medvisionspring.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ua.nure.holovashenko.medvisionspring.entity.AnalysisNote;
+import ua.nure.holovashenko.medvisionspring.entity.ImageAnalysis;
+import ua.nure.holovashenko.medvisionspring.repository.AnalysisNoteRepository;
+import ua.nure.holovashenko.medvisionspring.storage.BlobStorageService;
+import ua.nure.holovashenko.medvisionspring.util.hash.ContentHashUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Кеш згенерованих PDF-звітів як похідних артефактів у сховищі.
+ * <p>
+ * Версія вмісту звіту — хеш усіх полів, що впливають на звіт (діагноз, статус, примітки,
+ * метрики, теплова карта, версія моделі). Будь-яка їх зміна дає нову версію, тому
+ * збережена копія інвалідується без окремих викликів з кожного місця зміни даних.
+ * Версія входить у назву об'єкта ({@code reports/analysis/{id}/{version}.pdf}), тож звіт
+ * і його версія не можуть розійтися. Версія також використовується як ETag.
+ * Після збереження нової версії попередні версії того самого звіту видаляються.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReportCacheService {
+
+    // Збільшити при зміні вигляду звітів, щоб не віддавати копії, згенеровані старим шаблоном
+    private static final String REPORT_FORMAT_VERSION = "2";
+    private static final String REPORTS_DIR = "reports";
+
+    private final BlobStorageService blobStorageService;
+    private final AnalysisNoteRepository analysisNoteRepository;
+
+    /**
+     * Формує PDF безпосередньо у переданий потік.
+     */
+    @FunctionalInterface
+    public interface ReportWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Звіт, готовий до передачі у відповідь: версія відома одразу (для ETag),
+     * а вміст записується в потік лише за потреби.
+     *
+     * @param cached чи є збережена копія цієї версії (тоді вміст лише копіюється і не може обірватися
+     *               на помилці формування)
+     */
+    public record PdfReport(String version, boolean cached, ReportWriter content) {
+
+        public String etag() {
+            return "\"" + version + "\"";
+        }
+    }
+
+    public String analysisReportVersion(ImageAnalysis analysis) {
+        return ContentHashUtil.sha256(("analysis|" + REPORT_FORMAT_VERSION + "|" + fingerprint(analysis))
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param heatmapModelVersion версія моделі, якою будується різницева теплова карта
+     */
+    public String comparisonReportVersion(ImageAnalysis from, ImageAnalysis to, String heatmapModelVersion) {
+        return ContentHashUtil.sha256(("comparison|" + REPORT_FORMAT_VERSION + "|" + heatmapModelVersion
+                + "|" + fingerprint(from) + "|" + fingerprint(to)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public PdfReport analysisReport(ImageAnalysis analysis, ReportWriter renderer) {
+        String version = analysisReportVersion(analysis);
+        return report("analysis/" + analysis.getImageAnalysisId(), version, renderer);
+    }
+
+    public PdfReport comparisonReport(ImageAnalysis from, ImageAnalysis to, String heatmapModelVersion,
+                                      ReportWriter renderer) {
+        String version = comparisonReportVersion(from, to, heatmapModelVersion);
+        return report("comparison/" + from.getImageAnalysisId() + "_" + to.getImageAnalysisId(), version, renderer);
+    }
+
+    private PdfReport report(String name, String version, ReportWriter renderer) {
+        String directory = REPORTS_DIR + "/" + name;
+        String pdfBlob = directory + "/" + version + ".pdf";
+        boolean stored = isStored(pdfBlob);
+        return new PdfReport(version, stored, out -> writeReport(directory, pdfBlob, stored, renderer, out));
+    }
+
+    /**
+     * Копіює збережений звіт поточної версії у потік. Якщо його немає, формує звіт заново,
+     * паралельно записуючи його у відповідь і в тимчасовий файл, який потім зберігається
+     * під назвою цієї версії. Повний документ у пам'яті не тримається.
+     */
+    private void writeReport(String directory, String pdfBlob, boolean stored, ReportWriter renderer,
+                             OutputStream out) throws IOException {
+        InputStream cached = stored ? openStored(pdfBlob) : null;
+        if (cached != null) {
+            try (cached) {
+                cached.transferTo(out);
+            }
+            return;
+        }
+
+        File tempFile = File.createTempFile("report-", ".pdf");
+        try {
+            try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                renderer.writeTo(new TeeOutputStream(out, fileOut));
+            }
+
+            try {
+                blobStorageService.uploadFile(tempFile, pdfBlob, "application/pdf");
+            } catch (IOException e) {
+                log.warn("Cannot store generated report {}", pdfBlob, e);
+                return;
+            }
+            deleteSupersededVersions(directory, pdfBlob);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    // Дані звіту змінилися, тож старі версії більше ніколи не будуть запитані
+    private void deleteSupersededVersions(String directory, String currentBlob) {
+        try {
+            for (String blobName : blobStorageService.listFiles(directory)) {
+                if (!blobName.equals(currentBlob)) {
+                    blobStorageService.deleteFile(blobName);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Cannot delete superseded versions of report {}", currentBlob, e);
+        }
+    }
+
+    private InputStream openStored(String pdfBlob) {
+        try {
+            return blobStorageService.downloadFileStream(pdfBlob);
+        } catch (IOException e) {
+            log.warn("Cached report {} is missing, regenerating", pdfBlob);
+            return null;
+        }
+    }
+
+    private boolean isStored(String pdfBlob) {
+        try {
+            return blobStorageService.exists(pdfBlob);
+        } catch (IOException e) {
+            log.warn("Cannot check cached report {}", pdfBlob, e);
+            return false;
+        }
+    }
+
+    private String fingerprint(ImageAnalysis analysis) {
+        List<AnalysisNote> notes = analysisNoteRepository.findByImageAnalysis(analysis);
+        String notesFingerprint = notes.stream()
+                .sorted(Comparator.comparing(AnalysisNote::getAnalysisNoteId))
+                .map(note -> Stream.of(note.getAnalysisNoteId(), note.getNoteText(), note.getNoteAreaX(),
+                                note.getNoteAreaY(), note.getNoteAreaWidth(), note.getNoteAreaHeight())
+                        .map(String::valueOf)
+                        .collect(Collectors.joining(",")))
+                .collect(Collectors.joining(";"));
+
+        return Stream.of(
+                        analysis.getImageAnalysisId(),
+                        analysis.getAnalysisDetails(),
+                        analysis.getAnalysisDiagnosis(),
+                        analysis.getTreatmentRecommendations(),
+                        analysis.getAnalysisAccuracy(),
+                        analysis.getAnalysisPrecision(),
+                        analysis.getAnalysisRecall(),
+                        analysis.getAnalysisStatus(),
+                        analysis.getDiagnosisClass(),
+                        analysis.getAnalysisConfidence(),
+                        analysis.getModelVersion(),
+                        analysis.getCreationDatetime(),
+                        analysis.getImageFile() != null ? analysis.getImageFile().getImageFileUrl() : null,
+                        analysis.getHeatmapFile() != null ? analysis.getHeatmapFile().getImageFileUrl() : null,
+                        analysis.getPatient() != null ? analysis.getPatient().getUserName() : null,
+                        analysis.getDoctor() != null ? analysis.getDoctor().getUserName() : null,
+                        notesFingerprint)
+                .map(value -> Objects.toString(value, ""))
+                .collect(Collectors.joining("\u0000"));
+    }
+
+    private static final class TeeOutputStream extends OutputStream {
+
+        private final OutputStream first;
+        private final OutputStream second;
+
+        private TeeOutputStream(OutputStream first, OutputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            first.write(b);
+            second.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            first.write(b, off, len);
+            second.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.util.List;
 
 @Service
 @RequiredArgsConstructor
@@ -86,6 +87,25 @@ public class AzureBlobStorageService implements BlobStorageService {
         return blobClient.openInputStream();
     }
 
+    @Override
+    public boolean exists(String blobName) {
+        return blobServiceClient.getBlobContainerClient(containerName)
+                .getBlobClient(blobName)
+                .exists();
+    }
+
+    @Override
+    public List<String> listFiles(String directory) {
+        BlobContainerClient containerClient = blobServiceClient.getBlobContainerClient(containerName);
+        if (!containerClient.exists()) {
+            return List.of();
+        }
+        return containerClient.listBlobsByHierarchy(directory + "/").stream()
+                .filter(item -> !Boolean.TRUE.equals(item.isPrefix()))
+                .map(BlobItem::getName)
+                .toList();
+    }
+
     @Override
     public boolean deleteFile(String blobName) throws IOException {
         blobServiceClient.getBlobContainerClient(containerName)
@@ -3,6 +3,7 @@ package ua.nure.holovashenko.medvisionspring.storage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 public interface BlobStorageService {
     String uploadFile(File file, String blobName, String contentType) throws IOException;
@@ -12,5 +13,10 @@ public interface BlobStorageService {
     byte[] downloadFileByName(String blobName) throws IOException;
     InputStream downloadFileStream(String blobName) throws IOException;
 
+    boolean exists(String blobName) throws IOException;
+
+    // Назви об'єктів безпосередньо в каталозі directory (без завершального "/")
+    List<String> listFiles(String directory) throws IOException;
+
     boolean deleteFile(String blobName) throws IOException;
 }
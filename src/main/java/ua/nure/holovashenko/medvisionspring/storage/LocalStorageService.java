@@ -7,6 +7,8 @@ import org.springframework.stereotype.Service;
 import java.io.*;
 import java.net.URI;
 import java.nio.file.*;
+import java.util.List;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -61,6 +63,24 @@ public class LocalStorageService implements BlobStorageService {
         return Files.newInputStream(filePath, StandardOpenOption.READ);
     }
 
+    @Override
+    public boolean exists(String blobName) {
+        return Files.isRegularFile(Paths.get(storageDirectory, blobName));
+    }
+
+    @Override
+    public List<String> listFiles(String directory) throws IOException {
+        Path directoryPath = Paths.get(storageDirectory, directory);
+        if (!Files.isDirectory(directoryPath)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directoryPath)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> directory + "/" + file.getFileName())
+                    .toList();
+        }
+    }
+
     @Override
     public boolean deleteFile(String blobName) throws IOException {
         Path filePath = Paths.get(storageDirectory, blobName);
@@ -7,6 +7,7 @@ import org.springframework.stereotype.Service;
 
 import java.io.*;
 import java.net.URI;
+import java.util.List;
 
 @Service
 @Slf4j
@@ -87,6 +88,18 @@ public class ResilientBlobStorageService implements BlobStorageService {
         return local.downloadFileStream(blobName);
     }
 
+    @Override
+    public boolean exists(String blobName) throws IOException {
+//        return azure.exists(blobName) || local.exists(blobName);
+        return local.exists(blobName);
+    }
+
+    @Override
+    public List<String> listFiles(String directory) throws IOException {
+//        return azure.listFiles(directory);
+        return local.listFiles(directory);
+    }
+
     @Override
     public boolean deleteFile(String blobName) throws IOException {
 //        try {
@@ -0,0 +1,176 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.io.File;
+
+/**
+ * Контекст аналізу одного зображення: зображення декодується та масштабується один раз,
+ * а похідні вектори ознак і результати класифікації патчів обчислюються ліниво
+ * та повторно використовуються класифікацією, тепловою картою і метриками.
+ * <p>
+ * Контекст володіє нативною пам'яттю своїх матриць, тому його слід закривати
+ * (try-with-resources) після завершення обробки запиту.
+ */
+public class AnalysisImageContext implements AutoCloseable {
+
+    private final Mat image;
+    private Mat grayscaleImage;
+    private Mat fullImageFeatures;
+    private FeatureType fullImageFeatureType;
+    private ChannelMode fullImageChannels;
+    private Mat patchFeatures;
+    private ChannelMode patchChannels;
+    private InferenceResult[] patchResults;
+    private int[] patchPredictions;
+    private InferenceResult fullImageResult;
+    private ModelSnapshot patchSnapshot;
+    private ModelSnapshot fullImageSnapshot;
+    private ModelSnapshot classifiedBy;
+
+    private AnalysisImageContext(Mat image) {
+        this.image = retain(image);
+    }
+
+    public static AnalysisImageContext fromFile(File imageFile) {
+        return new AnalysisImageContext(ImageUtils.loadAndResizeImage(imageFile.getAbsolutePath()));
+    }
+
+    public static AnalysisImageContext fromBytes(byte[] imageBytes) {
+        return new AnalysisImageContext(ImageUtils.decodeAndResizeImage(imageBytes));
+    }
+
+    /**
+     * Контекст для вже декодованого зображення довільного розміру.
+     */
+    public static AnalysisImageContext fromDecoded(Mat decodedImage) {
+        return new AnalysisImageContext(ImageUtils.resizeToTarget(decodedImage));
+    }
+
+    /**
+     * Декодоване кольорове (BGR) зображення розміром TARGET_WIDTH x TARGET_HEIGHT;
+     * на нього накладається теплова карта.
+     */
+    public Mat image() {
+        return image;
+    }
+
+    /**
+     * Зображення з кількістю каналів, на якій працює модель (сіре обчислюється один раз).
+     */
+    public Mat image(ChannelMode mode) {
+        if (mode == ChannelMode.COLOR) {
+            return image;
+        }
+        if (grayscaleImage == null) {
+            grayscaleImage = retain(ImageUtils.toChannelMode(image, mode));
+        }
+        return grayscaleImage;
+    }
+
+    /**
+     * Вектор ознак повного зображення (1 x N, CV_32F), обчислений вказаним екстрактором.
+     */
+    public Mat fullImageFeatures(FeatureExtractor extractor, ChannelMode mode) {
+        if (fullImageFeatures == null || fullImageFeatureType != extractor.type() || fullImageChannels != mode) {
+            release(fullImageFeatures);
+            fullImageFeatures = retain(extractor.extract(image(mode)));
+            fullImageFeatureType = extractor.type();
+            fullImageChannels = mode;
+        }
+        return fullImageFeatures;
+    }
+
+    /**
+     * Матриця ознак патчів (один рядок на патч, CV_32F).
+     */
+    public Mat patchFeatures(ImagePatchExtractor extractor, ChannelMode mode) {
+        if (patchFeatures == null || patchChannels != mode) {
+            release(patchFeatures);
+            Mat source = image(mode);
+            Mat features = retain(extractor.allocateFeatures(source));
+            extractor.extractInto(source, features, 0);
+            patchFeatures = features;
+            patchChannels = mode;
+        }
+        return patchFeatures;
+    }
+
+    int[] patchPredictions() {
+        return patchPredictions;
+    }
+
+    InferenceResult[] patchResults() {
+        return patchResults;
+    }
+
+    void patchResults(InferenceResult[] results) {
+        this.patchResults = results;
+        this.patchPredictions = new int[results.length];
+        for (int i = 0; i < results.length; i++) {
+            patchPredictions[i] = results[i].label();
+        }
+    }
+
+    InferenceResult fullImageResult() {
+        return fullImageResult;
+    }
+
+    void fullImageResult(InferenceResult result) {
+        this.fullImageResult = result;
+    }
+
+    ModelSnapshot patchSnapshot() {
+        return patchSnapshot;
+    }
+
+    void patchSnapshot(ModelSnapshot snapshot) {
+        this.patchSnapshot = snapshot;
+    }
+
+    ModelSnapshot fullImageSnapshot() {
+        return fullImageSnapshot;
+    }
+
+    void fullImageSnapshot(ModelSnapshot snapshot) {
+        this.fullImageSnapshot = snapshot;
+    }
+
+    /**
+     * Версія моделі, якою було отримано діагноз цього зображення (null до класифікації).
+     */
+    public ModelSnapshot classifiedBy() {
+        return classifiedBy;
+    }
+
+    void classifiedBy(ModelSnapshot snapshot) {
+        this.classifiedBy = snapshot;
+    }
+
+    @Override
+    public void close() {
+        release(patchFeatures);
+        release(fullImageFeatures);
+        release(grayscaleImage);
+        release(image);
+    }
+
+    // Матриці контексту не повинні звільнятися разом з PointerScope, відкритим викликачем
+    private static Mat retain(Mat mat) {
+        PointerScope scope = PointerScope.getInnerScope();
+        if (scope != null) {
+            // detach() знімає посилання області, тому спершу додаємо власне
+            mat.retainReference();
+            scope.detach(mat);
+        }
+        return mat;
+    }
+
+    private static void release(Mat mat) {
+        if (mat != null && !mat.isNull()) {
+            mat.release();
+            mat.deallocate();
+        }
+    }
+}
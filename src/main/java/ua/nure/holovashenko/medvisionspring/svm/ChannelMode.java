@@ -0,0 +1,36 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+/**
+ * Кількість каналів зображення, на якому тренується й працює модель.
+ * Рентгенівські знімки не містять кольору, тому нові моделі використовують один канал;
+ * COLOR (BGR) лишається для версій, натренованих раніше.
+ */
+public enum ChannelMode {
+    GRAYSCALE("grayscale", 1),
+    COLOR("color", 3);
+
+    private final String key;
+    private final int channels;
+
+    ChannelMode(String key, int channels) {
+        this.key = key;
+        this.channels = channels;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public static ChannelMode fromKey(String key) {
+        for (ChannelMode mode : values()) {
+            if (mode.key.equalsIgnoreCase(key)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown channel mode: " + key);
+    }
+}
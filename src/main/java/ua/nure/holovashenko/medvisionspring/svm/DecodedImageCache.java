@@ -0,0 +1,92 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кеш декодованих зображень зі сховища за їхнім URL.
+ * <p>
+ * Розмір обмежується бюджетом нативної пам'яті (сума total() * elemSize() усіх матриць),
+ * а не кількістю записів. Витіснені матриці одразу звільняються. Викликач завжди
+ * отримує власну копію, тож витіснення не впливає на матриці, що вже використовуються.
+ */
+@Slf4j
+@Component
+public class DecodedImageCache {
+
+    @Value("${svm.image-cache.max-bytes:268435456}")
+    private long maxBytes;
+
+    private final LinkedHashMap<String, Mat> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    /**
+     * Повертає копію декодованого зображення, завантажуючи його лише при промаху.
+     */
+    public Mat get(String imageUrl) {
+        synchronized (this) {
+            Mat cached = entries.get(imageUrl);
+            if (cached != null) {
+                return cached.clone();
+            }
+        }
+
+        Mat decoded = ImageUtils.loadImage(imageUrl);
+        long size = sizeOf(decoded);
+        if (size > maxBytes) {
+            return decoded;
+        }
+
+        synchronized (this) {
+            Mat existing = entries.get(imageUrl);
+            if (existing != null) {
+                // Інший потік уже декодував це зображення
+                release(decoded);
+                return existing.clone();
+            }
+
+            entries.put(imageUrl, decoded);
+            currentBytes += size;
+            evictOverBudget();
+            return decoded.clone();
+        }
+    }
+
+    public synchronized void invalidate(String imageUrl) {
+        Mat removed = entries.remove(imageUrl);
+        if (removed != null) {
+            currentBytes -= sizeOf(removed);
+            release(removed);
+        }
+    }
+
+    public synchronized long sizeInBytes() {
+        return currentBytes;
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<String, Mat>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Mat> eldest = iterator.next();
+            iterator.remove();
+            currentBytes -= sizeOf(eldest.getValue());
+            release(eldest.getValue());
+            log.debug("Decoded image {} evicted from cache", eldest.getKey());
+        }
+    }
+
+    private static long sizeOf(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    private static void release(Mat mat) {
+        mat.release();
+        mat.deallocate();
+    }
+}
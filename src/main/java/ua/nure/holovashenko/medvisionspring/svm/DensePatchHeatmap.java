@@ -0,0 +1,139 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.*;
+
+/**
+ * Щільна теплова карта для лінійної патч-моделі на сирих пікселях.
+ * <p>
+ * Значення функції рішення пари класів для вікна з лівим верхнім кутом (y, x) дорівнює
+ * кореляції зображення з вагами пари, переформованими в ядро PATCH_SIZE x PATCH_SIZE
+ * для кожного каналу, мінус rho. Тому всі (H-63) x (W-63) вікон оцінюються одним filter2D
+ * (для такого ядра OpenCV використовує DFT) на пару класів і канал замість окремих патчів.
+ * Після голосування кожен піксель отримує середній клас (або очікувану мітку з
+ * {@link InferenceResult#expectedLabel}) усіх вікон, що його покривають, так само як
+ * клітинки в {@link HeatmapGrid#fromPatchValues}.
+ */
+final class DensePatchHeatmap {
+
+    private static final int PATCH = ImagePatchExtractor.PATCH_SIZE;
+
+    private DensePatchHeatmap() {
+    }
+
+    /**
+     * @param image  зображення CV_8U з кількістю каналів моделі
+     * @param scorer     лінійний скорер патч-моделі на сирих пікселях патча
+     * @param continuous очікувана мітка softmax-розподілу замість мітки голосування
+     */
+    static HeatmapGrid compute(Mat image, SvmScorer scorer, boolean continuous, float temperature) {
+        int rows = image.rows();
+        int cols = image.cols();
+        int channels = image.channels();
+        if (scorer.featureLength() != ImagePatchExtractor.featureLength(channels)) {
+            throw new IllegalArgumentException("Ваги моделі не відповідають патчу " + PATCH + "x" + PATCH + "x" + channels);
+        }
+
+        int windowRows = rows - PATCH + 1;
+        int windowCols = cols - PATCH + 1;
+        if (windowRows <= 0 || windowCols <= 0) {
+            return new HeatmapGrid(rows, cols, 1, new float[rows * cols], rows, cols);
+        }
+
+        float[][] decisions = windowDecisions(image, scorer);
+        int[] classLabels = scorer.classLabels();
+        int[] labels = SvmScorer.vote(decisions, classLabels);
+        float[] windowValues = new float[decisions.length];
+        for (int i = 0; i < decisions.length; i++) {
+            windowValues[i] = continuous
+                    ? InferenceResult.fromDecisions(labels[i], decisions[i], classLabels, temperature).expectedLabel(temperature)
+                    : labels[i];
+        }
+        try (PointerScope scope = new PointerScope()) {
+            return averageOverCoverage(windowValues, rows, cols, windowRows, windowCols);
+        }
+    }
+
+    /**
+     * Значення функцій рішення всіх пар класів для кожного вікна PATCH_SIZE x PATCH_SIZE з кроком 1.
+     *
+     * @return [(rows - PATCH + 1) * (cols - PATCH + 1)][пари], вікна по рядках лівих верхніх кутів
+     */
+    static float[][] windowDecisions(Mat image, SvmScorer scorer) {
+        int windowRows = image.rows() - PATCH + 1;
+        int windowCols = image.cols() - PATCH + 1;
+        int channels = image.channels();
+        float[][] weights = scorer.weightRows();
+        float[] rho = scorer.rho();
+        int windows = windowRows * windowCols;
+        float[][] decisions = new float[windows][weights.length];
+
+        try (PointerScope scope = new PointerScope()) {
+            Mat converted = new Mat();
+            image.convertTo(converted, opencv_core.CV_32F);
+            MatVector planes = new MatVector();
+            opencv_core.split(converted, planes);
+
+            Rect valid = new Rect(0, 0, windowCols, windowRows);
+            float[] response = new float[windows];
+            for (int pair = 0; pair < weights.length; pair++) {
+                Mat sum = new Mat(windowRows, windowCols, opencv_core.CV_32F, Scalar.all(-rho[pair]));
+                for (int c = 0; c < channels; c++) {
+                    Mat correlation = new Mat();
+                    opencv_imgproc.filter2D(planes.get(c), correlation, opencv_core.CV_32F,
+                            kernel(weights[pair], c, channels), new Point(0, 0), 0, opencv_core.BORDER_CONSTANT);
+                    opencv_core.add(sum, correlation.apply(valid), sum);
+                }
+
+                new FloatPointer(sum.data()).get(response);
+                for (int i = 0; i < windows; i++) {
+                    decisions[i][pair] = response[i];
+                }
+            }
+        }
+        return decisions;
+    }
+
+    // Ваги патча лежать як dy * PATCH * C + dx * C + c (порядок ImagePatchExtractor)
+    private static Mat kernel(float[] weights, int channel, int channels) {
+        float[] values = new float[PATCH * PATCH];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = weights[i * channels + channel];
+        }
+        Mat kernel = new Mat(PATCH, PATCH, opencv_core.CV_32F);
+        new FloatPointer(kernel.data()).put(values);
+        return kernel;
+    }
+
+    /**
+     * Середня мітка всіх вікон, що покривають піксель: сума та кількість вікон рахуються
+     * одним ненормалізованим boxFilter з якорем у правому нижньому куті вікна.
+     */
+    private static HeatmapGrid averageOverCoverage(float[] labelValues, int rows, int cols, int windowRows, int windowCols) {
+        Mat labelMap = new Mat(rows, cols, opencv_core.CV_32F, Scalar.all(0));
+        Mat coverage = new Mat(rows, cols, opencv_core.CV_32F, Scalar.all(0));
+        Rect valid = new Rect(0, 0, windowCols, windowRows);
+        Mat labelWindows = labelMap.apply(valid);
+        for (int r = 0; r < windowRows; r++) {
+            new FloatPointer(labelWindows.ptr(r)).put(labelValues, r * windowCols, windowCols);
+        }
+        coverage.apply(valid).put(Scalar.all(1));
+
+        Size window = new Size(PATCH, PATCH);
+        Point anchor = new Point(PATCH - 1, PATCH - 1);
+        Mat sums = new Mat();
+        Mat counts = new Mat();
+        opencv_imgproc.boxFilter(labelMap, sums, opencv_core.CV_32F, window, anchor, false, opencv_core.BORDER_CONSTANT);
+        opencv_imgproc.boxFilter(coverage, counts, opencv_core.CV_32F, window, anchor, false, opencv_core.BORDER_CONSTANT);
+
+        Mat average = new Mat();
+        opencv_core.divide(sums, counts, average);
+
+        float[] values = new float[rows * cols];
+        new FloatPointer(average.data()).get(values);
+        return new HeatmapGrid(rows, cols, 1, values, rows, cols);
+    }
+}
@@ -0,0 +1,44 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Перетворює масштабоване зображення (TARGET_WIDTH x TARGET_HEIGHT, CV_8U) у вектор ознак
+ * фіксованої довжини для моделі повного зображення.
+ * <p>
+ * Реалізації не мають стану запиту й можуть викликатися з кількох потоків одночасно.
+ */
+public interface FeatureExtractor {
+
+    FeatureType type();
+
+    /**
+     * Довжина вектора ознак для зображення з вказаною кількістю каналів.
+     */
+    int featureLength(int channels);
+
+    /**
+     * Записує вектор ознак зображення в рядок row матриці CV_32F.
+     */
+    void extractInto(Mat image, Mat features, int row);
+
+    /**
+     * Розподіляє внески ознак w_i * f_i по пікселях, з яких обчислено кожну ознаку
+     * (нова матриця image.rows() x image.cols(), CV_32F). Сума карти дорівнює w·f, тому сума
+     * по області показує, наскільки зміниться функція рішення, якщо ознаки області обнулити.
+     *
+     * @param features вектор ознак цього зображення (1 x featureLength)
+     * @param weights  ваги лінійної функції рішення у просторі ознак
+     */
+    Mat contributionMap(Mat image, Mat features, float[] weights);
+
+    /**
+     * Обчислює вектор ознак як нову матрицю 1 x featureLength (CV_32F).
+     */
+    default Mat extract(Mat image) {
+        Mat features = new Mat(1, featureLength(image.channels()), opencv_core.CV_32F);
+        extractInto(image, features, 0);
+        return features;
+    }
+}
@@ -1,5 +0,0 @@
-package ua.nure.holovashenko.medvisionspring.svm;
-
-import org.bytedeco.opencv.opencv_core.Mat;
-
-public record FeatureLabelPair(Mat features, int label) {}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+/**
+ * Тип ознак моделі повного зображення. Зберігається в метаданих версії моделі,
+ * тому інференс завжди використовує той самий екстрактор, що й тренування.
+ */
+public enum FeatureType {
+    RAW("raw"),
+    HOG("hog"),
+    LBP("lbp");
+
+    private final String key;
+    private volatile FeatureExtractor extractor;
+
+    FeatureType(String key) {
+        this.key = key;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    /**
+     * Спільний екземпляр екстрактора цього типу (створюється при першому зверненні).
+     */
+    public FeatureExtractor extractor() {
+        FeatureExtractor current = extractor;
+        if (current == null) {
+            synchronized (this) {
+                current = extractor;
+                if (current == null) {
+                    current = switch (this) {
+                        case RAW -> new RawPixelFeatureExtractor();
+                        case HOG -> new HogFeatureExtractor();
+                        case LBP -> new LbpFeatureExtractor();
+                    };
+                    extractor = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public static FeatureType fromKey(String key) {
+        for (FeatureType type : values()) {
+            if (type.key.equalsIgnoreCase(key)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown feature type: " + key);
+    }
+}
@@ -0,0 +1,147 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ua.nure.holovashenko.medvisionspring.storage.BlobStorageService;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Кеш теплових карт за ключем (тип моделі, версія моделі, хеш вмісту зображення).
+ * Для збереженого зображення і зафіксованої версії моделі карта не змінюється,
+ * тому повторні порівняння не потребують інференсу.
+ * <p>
+ * Два рівні: LRU у пам'яті та постійне сховище
+ * heatmap-cache/{type}/{version}/{hash}.bin у {@link BlobStorageService}.
+ * LRU обмежується сумарним розміром значень сіток, а не кількістю записів: щільна карта
+ * (256x256) у сотні разів більша за сітку патчів.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HeatmapCache {
+
+    private static final String CACHE_DIR = "heatmap-cache";
+    private static final int FORMAT_VERSION = 1;
+
+    private final BlobStorageService blobStorageService;
+
+    @Value("${svm.heatmap-cache.max-bytes:33554432}")
+    private long maxBytes;
+
+    private final LinkedHashMap<String, HeatmapGrid> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    public Optional<HeatmapGrid> get(SvmModelType type, String modelVersion, String contentHash) {
+        String key = blobName(type, modelVersion, contentHash);
+
+        synchronized (entries) {
+            HeatmapGrid cached = entries.get(key);
+            if (cached != null) {
+                return Optional.of(cached);
+            }
+        }
+
+        HeatmapGrid stored = readStored(key);
+        if (stored == null) {
+            return Optional.empty();
+        }
+
+        remember(key, stored);
+        return Optional.of(stored);
+    }
+
+    public void put(SvmModelType type, String modelVersion, String contentHash, HeatmapGrid grid) {
+        String key = blobName(type, modelVersion, contentHash);
+
+        remember(key, grid);
+
+        try {
+            blobStorageService.uploadFileFromBytes(serialize(grid), key, "application/octet-stream");
+        } catch (IOException e) {
+            log.warn("Cannot persist heatmap cache entry {}", key, e);
+        }
+    }
+
+    private void remember(String key, HeatmapGrid grid) {
+        long size = sizeOf(grid);
+        if (size > maxBytes) {
+            return;
+        }
+
+        synchronized (entries) {
+            HeatmapGrid previous = entries.put(key, grid);
+            if (previous != null) {
+                currentBytes -= sizeOf(previous);
+            }
+            currentBytes += size;
+
+            Iterator<Map.Entry<String, HeatmapGrid>> iterator = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, HeatmapGrid> eldest = iterator.next();
+                iterator.remove();
+                currentBytes -= sizeOf(eldest.getValue());
+            }
+        }
+    }
+
+    private static long sizeOf(HeatmapGrid grid) {
+        return (long) grid.values().length * Float.BYTES;
+    }
+
+    private HeatmapGrid readStored(String key) {
+        try {
+            return deserialize(blobStorageService.downloadFileByName(key));
+        } catch (Exception e) {
+            log.debug("Heatmap cache entry {} is not available: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private static String blobName(SvmModelType type, String modelVersion, String contentHash) {
+        return CACHE_DIR + "/" + type.key() + "/" + modelVersion + "/" + contentHash + ".bin";
+    }
+
+    static byte[] serialize(HeatmapGrid grid) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(24 + grid.values().length * Float.BYTES);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(grid.rows());
+            out.writeInt(grid.cols());
+            out.writeInt(grid.cellSize());
+            out.writeInt(grid.imageHeight());
+            out.writeInt(grid.imageWidth());
+            for (float value : grid.values()) {
+                out.writeFloat(value);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static HeatmapGrid deserialize(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int format = in.readInt();
+            if (format != FORMAT_VERSION) {
+                throw new IOException("Unsupported heatmap cache format " + format);
+            }
+
+            int rows = in.readInt();
+            int cols = in.readInt();
+            int cellSize = in.readInt();
+            int imageHeight = in.readInt();
+            int imageWidth = in.readInt();
+
+            float[] values = new float[rows * cols];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readFloat();
+            }
+            return new HeatmapGrid(rows, cols, cellSize, values, imageHeight, imageWidth);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package ua.nure.holovashenko.medvisionspring.svm;
 
-import org.bytedeco.javacpp.indexer.FloatIndexer;
 import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.global.opencv_imgcodecs;
 import org.bytedeco.opencv.global.opencv_imgproc;
@@ -11,42 +10,42 @@ import org.springframework.stereotype.Service;
 public class HeatmapGenerator {
 
     /**
-     * Створює теплову карту з матриці значень.
+     * Створює теплову карту із сітки значень патчів.
      *
      * @param inputImage   вихідне зображення (може бути null, якщо хочеш тільки теплову карту)
-     * @param heatmapData  матриця ймовірностей або значень [0..1]
+     * @param heatmapGrid  сітка значень у роздільності кроку патча
      * @return зображення з накладеною тепловою картою
      */
-    public Mat generateHeatmap(Mat inputImage, double[][] heatmapData) {
-        int rows = heatmapData.length;
-        int cols = heatmapData[0].length;
-
-        // Створити float-матрицю для теплової карти
-        Mat heatmapMat = new Mat(rows, cols, opencv_core.CV_32F);
-        FloatIndexer indexer = heatmapMat.createIndexer();
-
-        for (int y = 0; y < rows; y++) {
-            for (int x = 0; x < cols; x++) {
-                indexer.put(y, x, (float) heatmapData[y][x]);
-            }
-        }
+    public Mat generateHeatmap(Mat inputImage, HeatmapGrid heatmapGrid) {
+        boolean hasImage = inputImage != null && !inputImage.empty();
+        Size targetSize = hasImage
+                ? inputImage.size()
+                : new Size(heatmapGrid.imageWidth(), heatmapGrid.imageHeight());
+
+        Mat gridMat = heatmapGrid.toMat();
+
+        // Нормалізація [0–255] на маленькій сітці (мін/макс не змінюються при масштабуванні)
+        Mat normalized = new Mat();
+        opencv_core.normalize(gridMat, normalized, 0, 255, opencv_core.NORM_MINMAX, opencv_core.CV_8U, null);
 
-        // Нормалізація [0–255]
-        opencv_core.normalize(heatmapMat, heatmapMat, 0, 255, opencv_core.NORM_MINMAX, opencv_core.CV_8U, null);
+        // Єдине масштабування до розміру зображення; INTER_NEAREST зберігає межі клітинок
+        Mat resized = new Mat();
+        opencv_imgproc.resize(normalized, resized, targetSize, 0, 0, opencv_imgproc.INTER_NEAREST);
 
         // Застосування кольорової карти
         Mat colorMap = new Mat();
-        opencv_imgproc.applyColorMap(heatmapMat, colorMap, opencv_imgproc.COLORMAP_JET);
+        opencv_imgproc.applyColorMap(resized, colorMap, opencv_imgproc.COLORMAP_JET);
 
-        if (inputImage != null && !inputImage.empty()) {
-            // Масштабування heatmap до розміру зображення
-            Mat resizedHeatmap = new Mat();
-            opencv_imgproc.resize(colorMap, resizedHeatmap, inputImage.size());
+        gridMat.release();
+        normalized.release();
+        resized.release();
 
+        if (hasImage) {
             // Накладання з alpha
             double alpha = 0.5;
             Mat blended = new Mat();
-            opencv_core.addWeighted(inputImage, 1.0 - alpha, resizedHeatmap, alpha, 0.0, blended);
+            opencv_core.addWeighted(inputImage, 1.0 - alpha, colorMap, alpha, 0.0, blended);
+            colorMap.release();
             return blended;
         } else {
             return colorMap;
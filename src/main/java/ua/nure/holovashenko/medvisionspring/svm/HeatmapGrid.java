@@ -0,0 +1,96 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Теплова карта у роздільності сітки кроку патча (cellSize x cellSize пікселів на клітинку).
+ * Кожна клітинка містить середнє значення всіх патчів, що її перекривають.
+ * До розміру зображення карта масштабується лише під час побудови зображення.
+ * Щільна карта ({@link DensePatchHeatmap}) має cellSize 1, тобто одну клітинку на піксель.
+ *
+ * @param rows        кількість рядків сітки
+ * @param cols        кількість стовпців сітки
+ * @param cellSize    розмір клітинки в пікселях зображення
+ * @param values      значення клітинок по рядках (rows * cols)
+ * @param imageHeight висота зображення, для якого побудовано карту
+ * @param imageWidth  ширина зображення, для якого побудовано карту
+ */
+public record HeatmapGrid(int rows, int cols, int cellSize, float[] values, int imageHeight, int imageWidth) {
+
+    /**
+     * Будує сітку з передбачень патчів у порядку ImagePatchExtractor (по рядках).
+     */
+    public static HeatmapGrid fromPatchPredictions(int[] predictions, int imageHeight, int imageWidth) {
+        float[] values = new float[predictions.length];
+        for (int i = 0; i < predictions.length; i++) {
+            values[i] = predictions[i];
+        }
+        return fromPatchValues(values, imageHeight, imageWidth);
+    }
+
+    /**
+     * Будує сітку з довільних значень патчів (наприклад, очікуваної мітки) у порядку ImagePatchExtractor.
+     */
+    public static HeatmapGrid fromPatchValues(float[] patchValues, int imageHeight, int imageWidth) {
+        int cellSize = ImagePatchExtractor.STEP_SIZE;
+        int cellsPerPatch = ImagePatchExtractor.PATCH_SIZE / cellSize;
+        int rows = (imageHeight + cellSize - 1) / cellSize;
+        int cols = (imageWidth + cellSize - 1) / cellSize;
+        int patchRows = ImagePatchExtractor.gridSize(imageHeight);
+        int patchCols = ImagePatchExtractor.gridSize(imageWidth);
+
+        float[] sums = new float[rows * cols];
+        int[] counts = new int[rows * cols];
+
+        int patchIndex = 0;
+        for (int py = 0; py < patchRows; py++) {
+            for (int px = 0; px < patchCols && patchIndex < patchValues.length; px++) {
+                float prediction = patchValues[patchIndex++];
+                for (int cy = py; cy < py + cellsPerPatch && cy < rows; cy++) {
+                    for (int cx = px; cx < px + cellsPerPatch && cx < cols; cx++) {
+                        sums[cy * cols + cx] += prediction;
+                        counts[cy * cols + cx]++;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < sums.length; i++) {
+            if (counts[i] > 1) {
+                sums[i] /= counts[i];
+            }
+        }
+
+        return new HeatmapGrid(rows, cols, cellSize, sums, imageHeight, imageWidth);
+    }
+
+    public float get(int row, int col) {
+        return values[row * cols + col];
+    }
+
+    /**
+     * Поклітинна різниця this - other (сітки мають бути однакового розміру).
+     */
+    public HeatmapGrid subtract(HeatmapGrid other) {
+        if (rows != other.rows || cols != other.cols) {
+            throw new IllegalArgumentException("Теплові карти мають різний розмір сітки");
+        }
+
+        float[] diff = new float[values.length];
+        for (int i = 0; i < diff.length; i++) {
+            diff[i] = values[i] - other.values[i];
+        }
+        return new HeatmapGrid(rows, cols, cellSize, diff, imageHeight, imageWidth);
+    }
+
+    /**
+     * Копіює сітку в нову матрицю CV_32F розміром rows x cols.
+     */
+    public Mat toMat() {
+        Mat mat = new Mat(rows, cols, opencv_core.CV_32F);
+        new FloatPointer(mat.data()).put(values);
+        return mat;
+    }
+}
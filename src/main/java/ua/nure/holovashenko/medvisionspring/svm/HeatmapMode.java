@@ -0,0 +1,30 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+/**
+ * Роздільність теплової карти патч-моделі.
+ */
+public enum HeatmapMode {
+    /** Класи вікон 64x64 з кроком 32, усереднені по клітинках 32x32. */
+    GRID("grid"),
+    /** Класи вікон 64x64 з кроком 1 (кореляція зображення з вагами лінійної моделі), усереднені по пікселях. */
+    DENSE("dense");
+
+    private final String key;
+
+    HeatmapMode(String key) {
+        this.key = key;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public static HeatmapMode fromKey(String key) {
+        for (HeatmapMode mode : values()) {
+            if (mode.key.equalsIgnoreCase(key)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown heatmap mode: " + key);
+    }
+}
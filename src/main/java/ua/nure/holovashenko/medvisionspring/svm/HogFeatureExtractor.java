@@ -0,0 +1,178 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Гістограми орієнтованих градієнтів (Dalal–Triggs): клітинки 32x32, блоки 2x2 клітинки
+ * з кроком в одну клітинку, 9 ненапрямлених бінів (0–180°), нормалізація блоків L2-Hys.
+ * Для 256x256 це 7 * 7 блоків * 4 клітинки * 9 = 1764 ознаки незалежно від кількості
+ * каналів: для кольорового зображення в кожному пікселі береться канал з найбільшим градієнтом.
+ * <p>
+ * Градієнти рахуються через imgproc, бо HOGDescriptor з objdetect тягне highgui (GTK),
+ * якого немає в образі застосунку.
+ */
+class HogFeatureExtractor implements FeatureExtractor {
+
+    static final int CELL_SIZE = 32;
+    static final int BLOCK_CELLS = 2;
+    static final int BINS = 9;
+
+    private static final float BIN_WIDTH = 180f / BINS;
+    private static final float HYS_CLIP = 0.2f;
+
+    @Override
+    public FeatureType type() {
+        return FeatureType.HOG;
+    }
+
+    @Override
+    public int featureLength(int channels) {
+        return featureLength(ImageUtils.TARGET_HEIGHT, ImageUtils.TARGET_WIDTH);
+    }
+
+    static int featureLength(int rows, int cols) {
+        int blocksY = rows / CELL_SIZE - BLOCK_CELLS + 1;
+        int blocksX = cols / CELL_SIZE - BLOCK_CELLS + 1;
+        return blocksY * blocksX * BLOCK_CELLS * BLOCK_CELLS * BINS;
+    }
+
+    @Override
+    public void extractInto(Mat image, Mat features, int row) {
+        int rows = image.rows();
+        int cols = image.cols();
+        int channels = image.channels();
+        float[] gx = new float[rows * cols * channels];
+        float[] gy = new float[rows * cols * channels];
+
+        try (PointerScope scope = new PointerScope()) {
+            Mat dx = new Mat();
+            Mat dy = new Mat();
+            // ksize = 1 дає центральну різницю [-1, 0, 1], як у класичному HOG
+            opencv_imgproc.Sobel(image, dx, opencv_core.CV_32F, 1, 0, 1, 1, 0, opencv_core.BORDER_REPLICATE);
+            opencv_imgproc.Sobel(image, dy, opencv_core.CV_32F, 0, 1, 1, 1, 0, opencv_core.BORDER_REPLICATE);
+            new FloatPointer(dx.data()).get(gx);
+            new FloatPointer(dy.data()).get(gy);
+        }
+
+        int cellsY = rows / CELL_SIZE;
+        int cellsX = cols / CELL_SIZE;
+        float[] cells = new float[cellsY * cellsX * BINS];
+
+        for (int y = 0; y < cellsY * CELL_SIZE; y++) {
+            int cellRow = y / CELL_SIZE;
+            for (int x = 0; x < cellsX * CELL_SIZE; x++) {
+                int offset = (y * cols + x) * channels;
+                float bestX = gx[offset];
+                float bestY = gy[offset];
+                float bestMagnitude = bestX * bestX + bestY * bestY;
+                for (int c = 1; c < channels; c++) {
+                    float magnitude = gx[offset + c] * gx[offset + c] + gy[offset + c] * gy[offset + c];
+                    if (magnitude > bestMagnitude) {
+                        bestMagnitude = magnitude;
+                        bestX = gx[offset + c];
+                        bestY = gy[offset + c];
+                    }
+                }
+                if (bestMagnitude == 0f) {
+                    continue;
+                }
+
+                float magnitude = (float) Math.sqrt(bestMagnitude);
+                float angle = (float) Math.toDegrees(Math.atan2(bestY, bestX));
+                if (angle < 0) {
+                    angle += 180f;
+                }
+
+                // Лінійна інтерполяція між двома сусідніми бінами (по колу)
+                float position = angle / BIN_WIDTH - 0.5f;
+                int lower = (int) Math.floor(position);
+                float weight = position - lower;
+                int base = (cellRow * cellsX + x / CELL_SIZE) * BINS;
+                cells[base + Math.floorMod(lower, BINS)] += magnitude * (1f - weight);
+                cells[base + Math.floorMod(lower + 1, BINS)] += magnitude * weight;
+            }
+        }
+
+        float[] descriptor = new float[featureLength(rows, cols)];
+        int blockLength = BLOCK_CELLS * BLOCK_CELLS * BINS;
+        int position = 0;
+        for (int by = 0; by + BLOCK_CELLS <= cellsY; by++) {
+            for (int bx = 0; bx + BLOCK_CELLS <= cellsX; bx++) {
+                int start = position;
+                for (int cy = by; cy < by + BLOCK_CELLS; cy++) {
+                    for (int cx = bx; cx < bx + BLOCK_CELLS; cx++) {
+                        System.arraycopy(cells, (cy * cellsX + cx) * BINS, descriptor, position, BINS);
+                        position += BINS;
+                    }
+                }
+                normalizeL2Hys(descriptor, start, blockLength);
+            }
+        }
+
+        if (descriptor.length != features.cols()) {
+            throw new IllegalArgumentException("HOG очікує зображення "
+                    + ImageUtils.TARGET_WIDTH + "x" + ImageUtils.TARGET_HEIGHT);
+        }
+        try (FloatIndexer target = features.createIndexer()) {
+            target.put(row, 0, descriptor);
+        }
+    }
+
+    /**
+     * Внесок блоку ділиться порівну між його 2x2 клітинками, а внесок клітинки — між її пікселями.
+     * Нормалізація блоку робить HOG нелінійним, тому це наближення чутливості, а не точне значення.
+     */
+    @Override
+    public Mat contributionMap(Mat image, Mat features, float[] weights) {
+        int cellsY = image.rows() / CELL_SIZE;
+        int cellsX = image.cols() / CELL_SIZE;
+        int blockLength = BLOCK_CELLS * BLOCK_CELLS * BINS;
+        float[] values = new float[weights.length];
+        try (FloatIndexer indexer = features.createIndexer()) {
+            indexer.get(0, 0, values);
+        }
+
+        float[] cells = new float[cellsY * cellsX];
+        int position = 0;
+        for (int by = 0; by + BLOCK_CELLS <= cellsY; by++) {
+            for (int bx = 0; bx + BLOCK_CELLS <= cellsX; bx++) {
+                float block = 0f;
+                for (int i = position; i < position + blockLength; i++) {
+                    block += weights[i] * values[i];
+                }
+                position += blockLength;
+
+                for (int cy = by; cy < by + BLOCK_CELLS; cy++) {
+                    for (int cx = bx; cx < bx + BLOCK_CELLS; cx++) {
+                        cells[cy * cellsX + cx] += block / (BLOCK_CELLS * BLOCK_CELLS);
+                    }
+                }
+            }
+        }
+        return OcclusionSaliencyMap.spreadOverCells(cells, cellsY, cellsX, image.rows(), image.cols());
+    }
+
+    private static void normalizeL2Hys(float[] values, int start, int length) {
+        scaleToUnit(values, start, length);
+        for (int i = start; i < start + length; i++) {
+            values[i] = Math.min(values[i], HYS_CLIP);
+        }
+        scaleToUnit(values, start, length);
+    }
+
+    private static void scaleToUnit(float[] values, int start, int length) {
+        double sum = 0;
+        for (int i = start; i < start + length; i++) {
+            sum += values[i] * values[i];
+        }
+        float scale = (float) (1.0 / (Math.sqrt(sum) + 1e-3));
+        for (int i = start; i < start + length; i++) {
+            values[i] *= scale;
+        }
+    }
+}
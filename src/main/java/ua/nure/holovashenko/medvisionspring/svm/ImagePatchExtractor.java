@@ -1,56 +1,109 @@
 package ua.nure.holovashenko.medvisionspring.svm;
 
 import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.UByteIndexer;
 import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.opencv_core.Mat;
-import org.bytedeco.opencv.global.opencv_imgcodecs;
-import org.bytedeco.opencv.opencv_core.Rect;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-
 @Slf4j
 @Service
 public class ImagePatchExtractor {
 
-    private static final int PATCH_SIZE = 64;
-    private static final int STEP_SIZE = 32;
+    public static final int PATCH_SIZE = 64;
+    public static final int STEP_SIZE = 32;
+
+    // Буфери рядка патча для кожного потоку, щоб не виділяти пам'ять на кожен патч
+    private static final ThreadLocal<int[]> PIXEL_BUFFER = ThreadLocal.withInitial(() -> new int[0]);
+    private static final ThreadLocal<float[]> FEATURE_BUFFER = ThreadLocal.withInitial(() -> new float[0]);
 
     /**
-     * Ділить зображення на патчі розміром PATCH_SIZE з кроком STEP_SIZE,
-     * переводить кожен патч у вектор ознак.
-     *
-     * @param imageFile файл зображення
-     * @param label     мітка, яку слід призначити (ігнорується при класифікації)
-     * @param convertToFloat чи конвертувати дані в float
-     * @return список об'єктів FeatureLabelPair
+     * Кількість позицій патча вздовж однієї осі зображення.
      */
-    public List<FeatureLabelPair> extract(File imageFile, int label, boolean convertToFloat) {
-        List<FeatureLabelPair> patchFeatures = new ArrayList<>();
+    public static int gridSize(int length) {
+        return length < PATCH_SIZE ? 0 : (length - PATCH_SIZE) / STEP_SIZE + 1;
+    }
 
-        Mat image = ImageUtils.loadAndResizeImage(imageFile.getAbsolutePath());
-        if (image.empty()) {
-            log.warn("Не вдалося завантажити зображення: {}", imageFile.getAbsolutePath());
-            return patchFeatures;
-        }
+    public static int patchCount(int rows, int cols) {
+        return gridSize(rows) * gridSize(cols);
+    }
 
+    public static int featureLength(int channels) {
+        return PATCH_SIZE * PATCH_SIZE * channels;
+    }
+
+    /**
+     * Виділяє матрицю ознак CV_32F для всіх патчів зображення (один рядок на патч).
+     */
+    public Mat allocateFeatures(Mat image) {
+        return new Mat(patchCount(image.rows(), image.cols()), featureLength(image.channels()), opencv_core.CV_32F);
+    }
+
+    /**
+     * Записує патчі зображення напряму в рядки попередньо виділеної матриці ознак,
+     * починаючи з рядка firstRow. Порядок рядків збігається з порядком у extract().
+     * Нативна пам'ять на окремі патчі не виділяється.
+     *
+     * @param image    зображення CV_8U (1 або 3 канали)
+     * @param features матриця CV_32F з довжиною рядка featureLength(image.channels())
+     * @param firstRow індекс першого рядка для запису
+     * @return кількість записаних патчів
+     */
+    public int extractInto(Mat image, Mat features, int firstRow) {
         int rows = image.rows();
         int cols = image.cols();
+        int channels = image.channels();
+        int rowLength = PATCH_SIZE * channels;
+        int featureLength = featureLength(channels);
+
+        if (image.depth() != opencv_core.CV_8U) {
+            throw new IllegalArgumentException("Очікується 8-бітне зображення, отримано depth=" + image.depth());
+        }
+        if (features.type() != opencv_core.CV_32F || features.cols() != featureLength) {
+            throw new IllegalArgumentException("Матриця ознак має бути CV_32F з " + featureLength + " стовпцями");
+        }
+        if (firstRow + patchCount(rows, cols) > features.rows()) {
+            throw new IllegalArgumentException("Недостатньо рядків у матриці ознак для всіх патчів");
+        }
+
+        int[] pixels = pixelBuffer(rowLength);
+        float[] values = featureBuffer(rowLength);
 
-        for (int y = 0; y <= rows - PATCH_SIZE; y += STEP_SIZE) {
-            for (int x = 0; x <= cols - PATCH_SIZE; x += STEP_SIZE) {
-                Mat patchView = new Mat(image, new Rect(x, y, PATCH_SIZE, PATCH_SIZE));
-                Mat patch = patchView.clone();
-                Mat flatPatch = patch.reshape(1, 1);
-                if (convertToFloat) {
-                    flatPatch.convertTo(flatPatch, opencv_core.CV_32F);
+        int row = firstRow;
+        try (UByteIndexer source = image.createIndexer(); FloatIndexer target = features.createIndexer()) {
+            for (int y = 0; y <= rows - PATCH_SIZE; y += STEP_SIZE) {
+                for (int x = 0; x <= cols - PATCH_SIZE; x += STEP_SIZE) {
+                    for (int dy = 0; dy < PATCH_SIZE; dy++) {
+                        source.get(y + dy, x, pixels, 0, rowLength);
+                        for (int i = 0; i < rowLength; i++) {
+                            values[i] = pixels[i];
+                        }
+                        target.put(row, (long) dy * rowLength, values, 0, rowLength);
+                    }
+                    row++;
                 }
-                patchFeatures.add(new FeatureLabelPair(flatPatch, label));
             }
         }
 
-        return patchFeatures;
+        return row - firstRow;
+    }
+
+    private static int[] pixelBuffer(int length) {
+        int[] buffer = PIXEL_BUFFER.get();
+        if (buffer.length < length) {
+            buffer = new int[length];
+            PIXEL_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    private static float[] featureBuffer(int length) {
+        float[] buffer = FEATURE_BUFFER.get();
+        if (buffer.length < length) {
+            buffer = new float[length];
+            FEATURE_BUFFER.set(buffer);
+        }
+        return buffer;
     }
 }
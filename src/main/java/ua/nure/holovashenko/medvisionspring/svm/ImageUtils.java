@@ -25,7 +25,6 @@ public class ImageUtils {
     public static final int TARGET_HEIGHT = 256;
 
     public static Mat loadAndResizeImage(String imagePath) {
-        // Завантаження зображення у відтінках сірого
         Mat image = opencv_imgcodecs.imread(imagePath, opencv_imgcodecs.IMREAD_COLOR);
         if (image.empty()) {
             throw new IllegalArgumentException("Cannot read image: " + imagePath);
@@ -38,6 +37,52 @@ public class ImageUtils {
         return resizedImage;
     }
 
+    /**
+     * Завантажує зображення з потрібною кількістю каналів. Перетворення виконується так само,
+     * як для AnalysisImageContext (декодування BGR, масштабування, cvtColor), тому ознаки
+     * тренування та інференсу збігаються піксель у піксель.
+     */
+    public static Mat loadAndResizeImage(String imagePath, ChannelMode mode) {
+        return toChannelMode(loadAndResizeImage(imagePath), mode);
+    }
+
+    /**
+     * Декодує зображення з масиву байтів (без тимчасового файлу) та змінює розмір до 256x256.
+     */
+    public static Mat decodeAndResizeImage(byte[] imageBytes) {
+        Mat image = opencv_imgcodecs.imdecode(new Mat(new BytePointer(imageBytes)), opencv_imgcodecs.IMREAD_COLOR);
+        if (image.empty()) {
+            throw new IllegalArgumentException("Cannot decode image bytes");
+        }
+
+        return resizeToTarget(image);
+    }
+
+    /**
+     * Змінює розмір уже декодованого зображення до 256x256 (вихідна матриця не змінюється).
+     */
+    public static Mat resizeToTarget(Mat image) {
+        Mat resizedImage = new Mat();
+        opencv_imgproc.resize(image, resizedImage, new Size(TARGET_WIDTH, TARGET_HEIGHT));
+
+        return resizedImage;
+    }
+
+    /**
+     * Приводить BGR-зображення до вказаного режиму каналів. Для COLOR повертає ту саму матрицю.
+     */
+    public static Mat toChannelMode(Mat image, ChannelMode mode) {
+        if (image.channels() == mode.channels()) {
+            return image;
+        }
+
+        Mat converted = new Mat();
+        opencv_imgproc.cvtColor(image, converted, mode == ChannelMode.GRAYSCALE
+                ? opencv_imgproc.COLOR_BGR2GRAY
+                : opencv_imgproc.COLOR_GRAY2BGR);
+        return converted;
+    }
+
     public static Mat loadImage(String imageUrl) {
         try {
             URL url = URI.create(imageUrl).toURL();
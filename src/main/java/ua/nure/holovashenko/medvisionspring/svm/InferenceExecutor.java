@@ -0,0 +1,124 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import ua.nure.holovashenko.medvisionspring.exception.ApiException;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Окремий пул потоків для SVM-інференсу та побудови теплових карт.
+ * <p>
+ * Кількість потоків відповідає кількості ядер, а черга обмежена: коли вона заповнена,
+ * запит одразу відхиляється з 429 замість того, щоб затримка росла без меж.
+ * Потоки запитів Tomcat лише передають роботу і чекають на результат.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class InferenceExecutor {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${svm.inference.threads:0}")
+    private int threads;
+
+    @Value("${svm.inference.queue-capacity:32}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+    private Timer waitTimer;
+    private Counter rejectedCounter;
+
+    @PostConstruct
+    void start() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "svm-inference-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+
+        Gauge.builder("svm.inference.queue.depth", executor, e -> e.getQueue().size())
+                .description("Кількість завдань інференсу в черзі")
+                .register(meterRegistry);
+        Gauge.builder("svm.inference.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Кількість завдань інференсу, що виконуються")
+                .register(meterRegistry);
+        waitTimer = Timer.builder("svm.inference.wait")
+                .description("Час очікування завдання в черзі")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("svm.inference.rejected")
+                .description("Кількість відхилених через переповнення черги завдань")
+                .register(meterRegistry);
+
+        log.info("SVM inference executor started with {} threads, queue capacity {}", poolSize, queueCapacity);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Виконує завдання в пулі інференсу та чекає на результат у потоці викликача.
+     *
+     * @param operation назва операції (тег метрики часу виконання)
+     * @param task      обчислення, яке не повинно само звертатися до цього пулу
+     * @throws ApiException 429, якщо черга заповнена
+     */
+    public <T> T execute(String operation, Supplier<T> task) {
+        Timer executionTimer = Timer.builder("svm.inference.execution")
+                .description("Час виконання завдання інференсу")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        long submittedAt = System.nanoTime();
+
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                waitTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                return executionTimer.record(task);
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            log.warn("SVM inference queue is full, rejecting {} request", operation);
+            throw new ApiException("Сервер перевантажено аналізом зображень. Спробуйте пізніше.", HttpStatus.TOO_MANY_REQUESTS);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ApiException("Аналіз зображення перервано", HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException("SVM inference failed", e.getCause());
+        }
+    }
+}
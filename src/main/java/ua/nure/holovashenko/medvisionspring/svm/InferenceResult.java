@@ -0,0 +1,98 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+/**
+ * Результат класифікації одного зразка: мітка, бали класів і впевненість, отримані з тих самих
+ * попарних функцій рішення, що й мітка.
+ * <p>
+ * Бал класу — сума його відступів у всіх парах (значення пари зі знаком «за» цей клас).
+ * Впевненість — softmax балів з температурою для переможця голосування.
+ *
+ * @param label       мітка класу (результат голосування, як у SVM::predict)
+ * @param classLabels мітки класів у порядку моделі (порожній масив, якщо бали недоступні)
+ * @param classScores бали класів у порядку classLabels
+ * @param confidence  імовірність мітки за softmax(classScores / T) або NaN, якщо бали недоступні
+ */
+public record InferenceResult(int label, int[] classLabels, float[] classScores, float confidence) {
+
+    private static final int[] NO_LABELS = new int[0];
+    private static final float[] NO_SCORES = new float[0];
+
+    /**
+     * Результат моделі, для якої доступна лише мітка (нелінійна модель з кількома класами).
+     */
+    public static InferenceResult labelOnly(int label) {
+        return new InferenceResult(label, NO_LABELS, NO_SCORES, Float.NaN);
+    }
+
+    /**
+     * @param decisions   значення функцій рішення пар у порядку SvmScorer (a < b, додатне — за a)
+     * @param temperature температура softmax (більше — м'якший розподіл)
+     */
+    public static InferenceResult fromDecisions(int label, float[] decisions, int[] classLabels, float temperature) {
+        float[] scores = new float[classLabels.length];
+        int pair = 0;
+        for (int a = 0; a < classLabels.length; a++) {
+            for (int b = a + 1; b < classLabels.length; b++, pair++) {
+                scores[a] += decisions[pair];
+                scores[b] -= decisions[pair];
+            }
+        }
+        return fromScores(label, classLabels, scores, temperature);
+    }
+
+    public static InferenceResult fromScores(int label, int[] classLabels, float[] scores, float temperature) {
+        float[] probabilities = softmax(scores, temperature);
+        float confidence = 0f;
+        for (int c = 0; c < classLabels.length; c++) {
+            if (classLabels[c] == label) {
+                confidence = probabilities[c];
+            }
+        }
+        return new InferenceResult(label, classLabels, scores, confidence);
+    }
+
+    public boolean hasScores() {
+        return classScores.length > 0;
+    }
+
+    /**
+     * Впевненість як Float для збереження (null, якщо модель не дає балів).
+     */
+    public Float confidenceOrNull() {
+        return hasScores() ? confidence : null;
+    }
+
+    /**
+     * Математичне сподівання мітки за softmax-розподілом — неперервний аналог мітки
+     * для теплових карт (без балів дорівнює самій мітці).
+     */
+    public float expectedLabel(float temperature) {
+        if (!hasScores()) {
+            return label;
+        }
+        float[] probabilities = softmax(classScores, temperature);
+        float expected = 0f;
+        for (int c = 0; c < classLabels.length; c++) {
+            expected += probabilities[c] * classLabels[c];
+        }
+        return expected;
+    }
+
+    private static float[] softmax(float[] scores, float temperature) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (float score : scores) {
+            max = Math.max(max, score);
+        }
+
+        float[] probabilities = new float[scores.length];
+        double sum = 0;
+        for (int c = 0; c < scores.length; c++) {
+            probabilities[c] = (float) Math.exp((scores[c] - max) / temperature);
+            sum += probabilities[c];
+        }
+        for (int c = 0; c < scores.length; c++) {
+            probabilities[c] /= (float) sum;
+        }
+        return probabilities;
+    }
+}
@@ -0,0 +1,115 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Гістограми рівномірних локальних бінарних шаблонів (LBP 8,1): зображення у відтінках
+ * сірого ділиться на сітку GRID x GRID клітинок, для кожної будується нормалізована
+ * гістограма з 59 бінів (58 рівномірних кодів і один спільний для решти).
+ * Для сітки 4x4 це 944 ознаки.
+ */
+class LbpFeatureExtractor implements FeatureExtractor {
+
+    static final int GRID = 4;
+    static final int BINS = 59;
+
+    private static final int[] UNIFORM_BIN = uniformBins();
+
+    @Override
+    public FeatureType type() {
+        return FeatureType.LBP;
+    }
+
+    @Override
+    public int featureLength(int channels) {
+        return GRID * GRID * BINS;
+    }
+
+    @Override
+    public void extractInto(Mat image, Mat features, int row) {
+        int rows = image.rows();
+        int cols = image.cols();
+        byte[] pixels = new byte[rows * cols];
+
+        try (PointerScope scope = new PointerScope()) {
+            Mat gray = image;
+            if (image.channels() > 1) {
+                gray = new Mat();
+                opencv_imgproc.cvtColor(image, gray, opencv_imgproc.COLOR_BGR2GRAY);
+            } else if (!image.isContinuous()) {
+                gray = image.clone();
+            }
+            gray.data().get(pixels);
+        }
+
+        float[] histogram = new float[GRID * GRID * BINS];
+        int[] cellCounts = new int[GRID * GRID];
+
+        for (int y = 1; y < rows - 1; y++) {
+            int cellRow = Math.min(y * GRID / rows, GRID - 1);
+            for (int x = 1; x < cols - 1; x++) {
+                int center = pixels[y * cols + x] & 0xFF;
+                int code = 0;
+                code |= bit(pixels, (y - 1) * cols + x - 1, center) << 7;
+                code |= bit(pixels, (y - 1) * cols + x, center) << 6;
+                code |= bit(pixels, (y - 1) * cols + x + 1, center) << 5;
+                code |= bit(pixels, y * cols + x + 1, center) << 4;
+                code |= bit(pixels, (y + 1) * cols + x + 1, center) << 3;
+                code |= bit(pixels, (y + 1) * cols + x, center) << 2;
+                code |= bit(pixels, (y + 1) * cols + x - 1, center) << 1;
+                code |= bit(pixels, y * cols + x - 1, center);
+
+                int cell = cellRow * GRID + Math.min(x * GRID / cols, GRID - 1);
+                histogram[cell * BINS + UNIFORM_BIN[code]]++;
+                cellCounts[cell]++;
+            }
+        }
+
+        for (int cell = 0; cell < cellCounts.length; cell++) {
+            if (cellCounts[cell] > 0) {
+                for (int bin = 0; bin < BINS; bin++) {
+                    histogram[cell * BINS + bin] /= cellCounts[cell];
+                }
+            }
+        }
+
+        try (FloatIndexer target = features.createIndexer()) {
+            target.put(row, 0, histogram);
+        }
+    }
+
+    /**
+     * Внесок гістограми клітинки рівномірно розподіляється між пікселями клітинки.
+     */
+    @Override
+    public Mat contributionMap(Mat image, Mat features, float[] weights) {
+        float[] values = new float[weights.length];
+        try (FloatIndexer indexer = features.createIndexer()) {
+            indexer.get(0, 0, values);
+        }
+
+        float[] cells = new float[GRID * GRID];
+        for (int i = 0; i < values.length; i++) {
+            cells[i / BINS] += weights[i] * values[i];
+        }
+        return OcclusionSaliencyMap.spreadOverCells(cells, GRID, GRID, image.rows(), image.cols());
+    }
+
+    private static int bit(byte[] pixels, int index, int center) {
+        return (pixels[index] & 0xFF) >= center ? 1 : 0;
+    }
+
+    // Коди з не більше ніж двома переходами 0/1 по колу отримують власний бін, решта — останній
+    private static int[] uniformBins() {
+        int[] bins = new int[256];
+        int next = 0;
+        for (int code = 0; code < 256; code++) {
+            int rotated = ((code << 1) | (code >>> 7)) & 0xFF;
+            bins[code] = Integer.bitCount(code ^ rotated) <= 2 ? next++ : BINS - 1;
+        }
+        return bins;
+    }
+}
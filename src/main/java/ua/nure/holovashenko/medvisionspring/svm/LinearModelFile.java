@@ -0,0 +1,129 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Бінарний формат лінійної моделі ({@code .bin}) замість XML OpenCV, розбір якого для моделі
+ * на сирих пікселях займає секунди.
+ * <p>
+ * Little-endian: заголовок (MAGIC, FORMAT, кількість класів k, довжина ознак n), мітки класів
+ * (k x int32), rho (k(k-1)/2 x float32), вирівнювання до WEIGHTS_ALIGNMENT байтів і ваги пар
+ * (k(k-1)/2 x n float32, по рядках). Ваги вже містять згорнуту PCA, тож файл самодостатній
+ * для {@link LinearSvmScorer}. Під час читання файл відображається в пам'ять, і матриця ваг
+ * посилається на відображені сторінки без копіювання.
+ */
+final class LinearModelFile {
+
+    static final String EXTENSION = ".bin";
+
+    private static final int MAGIC = 0x4D56534D; // "MVSM"
+    private static final int FORMAT = 1;
+    private static final int WEIGHTS_ALIGNMENT = 64;
+
+    private LinearModelFile() {
+    }
+
+    static void write(Path path, LinearSvmScorer scorer) throws IOException {
+        int[] classLabels = scorer.classLabels();
+        float[] rho = scorer.rho();
+        float[][] weights = scorer.weightRows();
+        int featureLength = scorer.featureLength();
+        int weightsOffset = weightsOffset(classLabels.length, rho.length);
+
+        ByteBuffer header = ByteBuffer.allocate(weightsOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(FORMAT).putInt(classLabels.length).putInt(featureLength);
+        for (int label : classLabels) {
+            header.putInt(label);
+        }
+        for (float value : rho) {
+            header.putFloat(value);
+        }
+        header.position(0);
+
+        // Запис у тимчасовий файл і атомарна заміна: читач ніколи не бачить недописаний файл
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            ByteBuffer row = ByteBuffer.allocate(featureLength * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (float[] pairWeights : weights) {
+                row.clear();
+                row.asFloatBuffer().put(pairWeights);
+                writeFully(channel, row);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static LinearSvmScorer read(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Відображення лишається дійсним після закриття каналу
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.remaining() < 4 * Integer.BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a linear SVM model file: " + path);
+        }
+        int format = buffer.getInt();
+        if (format != FORMAT) {
+            throw new IOException("Unsupported linear SVM model format " + format + ": " + path);
+        }
+
+        int classCount = buffer.getInt();
+        int featureLength = buffer.getInt();
+        int pairs = classCount * (classCount - 1) / 2;
+        int weightsOffset = weightsOffset(classCount, pairs);
+        long expectedSize = weightsOffset + (long) pairs * featureLength * Float.BYTES;
+        if (classCount < 2 || featureLength <= 0 || mapped.capacity() != expectedSize) {
+            throw new IOException("Corrupted linear SVM model file: " + path);
+        }
+
+        int[] classLabels = new int[classCount];
+        for (int i = 0; i < classCount; i++) {
+            classLabels[i] = buffer.getInt();
+        }
+        float[] rho = new float[pairs];
+        for (int i = 0; i < pairs; i++) {
+            rho[i] = buffer.getFloat();
+        }
+
+        Mat weights;
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            ByteBuffer weightBytes = mapped.slice(weightsOffset, (int) (expectedSize - weightsOffset));
+            weights = new Mat(pairs, featureLength, opencv_core.CV_32F, new FloatPointer(weightBytes.asFloatBuffer()));
+        } else {
+            float[] values = new float[pairs * featureLength];
+            buffer.position(weightsOffset);
+            buffer.asFloatBuffer().get(values);
+            weights = new Mat(pairs, featureLength, opencv_core.CV_32F);
+            new FloatPointer(weights.data()).put(values);
+            mapped = null;
+        }
+        return LinearSvmScorer.of(weights, rho, classLabels, mapped);
+    }
+
+    private static int weightsOffset(int classCount, int pairs) {
+        int header = 4 * Integer.BYTES + classCount * Integer.BYTES + pairs * Float.BYTES;
+        return (header + WEIGHTS_ALIGNMENT - 1) / WEIGHTS_ALIGNMENT * WEIGHTS_ALIGNMENT;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
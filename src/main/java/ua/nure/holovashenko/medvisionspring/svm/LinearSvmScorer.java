@@ -0,0 +1,176 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.IntIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.FileStorage;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_ml.SVM;
+
+
+/**
+ * Швидкий класифікатор для лінійної C-SVC моделі: кожна з k(k-1)/2 попарних функцій рішення
+ * має вигляд w·x - rho, тож усі зразки оцінюються для всіх пар класів одним множенням
+ * матриць X * Wᵀ (OpenCV gemm), після чого виконується голосування «один проти одного».
+ * <p>
+ * Якщо модель використовує PCA, проєкція згортається у ваги (W' = W * E, rho' = rho + mean·W'),
+ * тому скорер приймає вихідні ознаки без окремого кроку проєкції.
+ */
+@Slf4j
+public final class LinearSvmScorer implements SvmScorer {
+
+    private final Mat weights;
+    private final float[] rho;
+    private final int[] classLabels;
+    // Буфер, на пам'ять якого посилається weights (відображений файл моделі), або null
+    private final Object weightsOwner;
+
+    private LinearSvmScorer(Mat weights, float[] rho, int[] classLabels, Object weightsOwner) {
+        this.weights = weights;
+        this.rho = rho;
+        this.classLabels = classLabels;
+        this.weightsOwner = weightsOwner;
+    }
+
+    /**
+     * Скорер з уже обчислених ваг (пари x featureLength, CV_32F, PCA згорнута).
+     *
+     * @param weightsOwner об'єкт, що володіє пам'яттю weights і має жити разом зі скорером
+     */
+    static LinearSvmScorer of(Mat weights, float[] rho, int[] classLabels, Object weightsOwner) {
+        return new LinearSvmScorer(weights, rho, classLabels, weightsOwner);
+    }
+
+    /**
+     * Будує скорер для натренованої лінійної C-SVC моделі.
+     *
+     * @return null, якщо модель не лінійна, не C-SVC або ще не натренована
+     */
+    public static LinearSvmScorer of(SVM model, PcaProjection pca) {
+        if (model.getKernelType() != SVM.LINEAR || model.getType() != SVM.C_SVC || !model.isTrained()) {
+            return null;
+        }
+
+        try {
+            return build(model, pca);
+        } catch (RuntimeException e) {
+            log.warn("Linear scorer is not available, falling back to SVM::predict", e);
+            return null;
+        }
+    }
+
+    private static LinearSvmScorer build(SVM model, PcaProjection pca) {
+        int[] classLabels = readClassLabels(model);
+        int pairs = classLabels.length * (classLabels.length - 1) / 2;
+
+        Mat weights = new Mat();
+        float[] rho = new float[pairs];
+        try (PointerScope scope = new PointerScope()) {
+            // Для лінійного ядра OpenCV зберігає стиснені вектори: один рядок ваг на пару класів
+            Mat supportVectors = model.getSupportVectors();
+            if (supportVectors.rows() != pairs) {
+                return null;
+            }
+
+            Mat pairWeights = new Mat();
+            supportVectors.convertTo(pairWeights, opencv_core.CV_32F);
+            for (int pair = 0; pair < pairs; pair++) {
+                Mat alpha = new Mat();
+                Mat index = new Mat();
+                rho[pair] = (float) model.getDecisionFunction(pair, alpha, index);
+                try (DoubleIndexer alphaIndexer = alpha.createIndexer()) {
+                    Mat row = pairWeights.row(pair);
+                    row.convertTo(row, -1, alphaIndexer.get(0), 0);
+                }
+            }
+
+            if (pca != null) {
+                Mat folded = new Mat();
+                opencv_core.gemm(pairWeights, pca.eigenvectors(), 1.0, new Mat(), 0.0, folded);
+                Mat offsets = new Mat();
+                opencv_core.gemm(folded, pca.mean(), 1.0, new Mat(), 0.0, offsets, opencv_core.GEMM_2_T);
+                try (FloatIndexer offsetIndexer = offsets.createIndexer()) {
+                    for (int pair = 0; pair < pairs; pair++) {
+                        rho[pair] += offsetIndexer.get(pair, 0);
+                    }
+                }
+                pairWeights = folded;
+            }
+
+            pairWeights.copyTo(weights);
+        }
+
+        return new LinearSvmScorer(weights, rho, classLabels, null);
+    }
+
+    @Override
+    public int featureLength() {
+        return weights.cols();
+    }
+
+    @Override
+    public int[] classLabels() {
+        return classLabels.clone();
+    }
+
+    @Override
+    public float[][] decisionValues(Mat samples) {
+        int pairs = rho.length;
+        float[][] values = new float[samples.rows()][pairs];
+
+        try (PointerScope scope = new PointerScope()) {
+            Mat scores = new Mat();
+            opencv_core.gemm(samples, weights, 1.0, new Mat(), 0.0, scores, opencv_core.GEMM_2_T);
+
+            FloatPointer data = new FloatPointer(scores.data());
+            for (int i = 0; i < values.length; i++) {
+                data.position((long) i * pairs).get(values[i]);
+                for (int pair = 0; pair < pairs; pair++) {
+                    values[i][pair] -= rho[pair];
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public float[][] weightRows() {
+        float[][] rows = new float[rho.length][featureLength()];
+        FloatPointer data = new FloatPointer(weights.data());
+        for (int pair = 0; pair < rows.length; pair++) {
+            data.position((long) pair * rows[pair].length).get(rows[pair]);
+        }
+        return rows;
+    }
+
+    @Override
+    public float[] rho() {
+        return rho.clone();
+    }
+
+    // SVM не відкриває class_labels через API, тому вони читаються з серіалізованої моделі
+    private static int[] readClassLabels(SVM model) {
+        try (PointerScope scope = new PointerScope()) {
+            FileStorage out = new FileStorage(".yml", FileStorage.WRITE | FileStorage.MEMORY | FileStorage.WRITE_BASE64);
+            model.write(out);
+            BytePointer serialized = out.releaseAndGetString();
+
+            FileStorage in = new FileStorage(serialized.getString(), FileStorage.READ | FileStorage.MEMORY);
+            Mat labels = in.get("class_labels").mat();
+            in.release();
+
+            int[] values = new int[labels.rows() * labels.cols()];
+            try (IntIndexer indexer = labels.createIndexer()) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = indexer.get(i);
+                }
+            }
+            return values;
+        }
+    }
+}
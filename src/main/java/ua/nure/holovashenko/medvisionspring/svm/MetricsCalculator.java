@@ -2,6 +2,11 @@ package ua.nure.holovashenko.medvisionspring.svm;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.IntIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_ml;
 import org.bytedeco.opencv.opencv_core.Mat;
 import org.bytedeco.opencv.opencv_ml.SVM;
 import org.springframework.stereotype.Service;
@@ -13,6 +18,12 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 @Slf4j
 @Service
@@ -33,23 +44,211 @@ public class MetricsCalculator {
         this.blobStorageService = blobStorageService;
     }
 
-    public ModelMetrics calculate(SVM model, List<Mat> features, List<Integer> labels) {
-        if (features.size() != labels.size()) {
+    /**
+     * Обчислює метрики на тій самій матриці ознак, на якій тренувалась модель
+     * (рядок на зразок), без створення окремих Mat для кожного зразка.
+     *
+     * @param samples матриця ознак CV_32F
+     * @param labels  матриця міток CV_32S (samples.rows() x 1)
+     */
+    public ModelMetrics calculate(SVM model, Mat samples, Mat labels) {
+        if (samples.rows() != labels.rows()) {
             throw new IllegalArgumentException("Розмір features і labels повинен бути однаковим.");
         }
 
-        List<Integer> predictions = new ArrayList<>();
-        for (Mat feature : features) {
-            float prediction = model.predict(feature);
-            predictions.add((int) prediction);
+        Mat results = new Mat();
+        model.predict(samples, results, 0);
+
+        List<Integer> groundTruth = new ArrayList<>(labels.rows());
+        List<Integer> predictions = new ArrayList<>(samples.rows());
+        try (IntIndexer labelIndexer = labels.createIndexer(); FloatIndexer resultIndexer = results.createIndexer()) {
+            for (int i = 0; i < samples.rows(); i++) {
+                groundTruth.add(labelIndexer.get(i, 0));
+                predictions.add((int) resultIndexer.get(i, 0));
+            }
+        }
+        results.release();
+
+        return fromPredictions(groundTruth, predictions, null);
+    }
+
+    /**
+     * Стратифікована k-блокова перехресна перевірка. Для кожного блоку окрема модель тренується
+     * на решті рядків і класифікує відкладені; блоки обробляються паралельно в переданому пулі.
+     * Метрики рахуються за зведеною матрицею помилок усіх відкладених рядків.
+     * Кожен блок копіює свої навчальні рядки, тому одночасно виконується лише стільки блоків,
+     * скільки копій вміщує memoryBudgetBytes.
+     *
+     * @param modelFactory      створює ненатреновану модель з тими самими параметрами, що й фінальна
+     * @param rowFolds          номер блоку (0..foldCount-1) для кожного рядка samples
+     * @param memoryBudgetBytes пам'ять під копії навчальних рядків блоків; 0 — без обмеження
+     */
+    public ModelMetrics crossValidate(Supplier<SVM> modelFactory, Mat samples, Mat labels, int[] rowFolds,
+                                      int foldCount, ExecutorService executor, long memoryBudgetBytes) {
+        if (samples.rows() != labels.rows() || samples.rows() != rowFolds.length) {
+            throw new IllegalArgumentException("Розмір features, labels і folds повинен бути однаковим.");
+        }
+
+        int[] groundTruth = new int[labels.rows()];
+        try (IntIndexer labelIndexer = labels.createIndexer()) {
+            for (int i = 0; i < groundTruth.length; i++) {
+                groundTruth[i] = labelIndexer.get(i, 0);
+            }
+        }
+
+        int concurrentFolds = concurrentFolds(samples, foldCount, memoryBudgetBytes);
+        log.info("Cross-validation runs at most {} of {} folds at once", concurrentFolds, foldCount);
+        Semaphore permits = new Semaphore(concurrentFolds);
+
+        int[] heldOut = new int[groundTruth.length];
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int fold = 0; fold < foldCount; fold++) {
+            int testFold = fold;
+            // Дозвіл береться до подання задачі, тож блоки, що чекають на пам'ять, не займають потоки пулу
+            acquire(permits);
+            try {
+                // Кожен блок пише лише у свої рядки heldOut
+                tasks.add(executor.submit(() -> {
+                    try {
+                        evaluateFold(modelFactory.get(), samples, groundTruth, rowFolds, testFold, heldOut);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+        for (Future<?> task : tasks) {
+            await(task);
+        }
+
+        List<Integer> truth = Arrays.stream(groundTruth).boxed().toList();
+        List<Integer> predictions = Arrays.stream(heldOut).boxed().toList();
+        ModelMetrics metrics = fromPredictions(truth, predictions, foldCount);
+        log.info("{}-fold cross-validation accuracy: {}", foldCount, metrics.accuracy());
+        return metrics;
+    }
+
+    /**
+     * Розподіляє зразки на foldCount блоків так, щоб частка кожного класу в блоках була однаковою.
+     *
+     * @return номер блоку для кожного зразка
+     */
+    public int[] stratifiedFolds(List<Integer> labels, int foldCount, long seed) {
+        Map<Integer, List<Integer>> indicesByClass = new TreeMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            indicesByClass.computeIfAbsent(labels.get(i), label -> new ArrayList<>()).add(i);
+        }
+
+        Random random = new Random(seed);
+        int[] folds = new int[labels.size()];
+        // Лічильник продовжується між класами, тож розміри блоків відрізняються не більше ніж на 1
+        int next = 0;
+        for (List<Integer> indices : indicesByClass.values()) {
+            Collections.shuffle(indices, random);
+            for (int index : indices) {
+                folds[index] = next;
+                next = (next + 1) % foldCount;
+            }
+        }
+        return folds;
+    }
+
+    /**
+     * Кількість блоків, навчальні копії яких ((k-1)/k рядків samples кожна) одночасно вміщуються в бюджет.
+     */
+    static int concurrentFolds(Mat samples, int foldCount, long memoryBudgetBytes) {
+        if (memoryBudgetBytes <= 0) {
+            return foldCount;
+        }
+        long foldBytes = samples.total() * samples.elemSize() / foldCount * (foldCount - 1);
+        return (int) Math.max(1, Math.min(foldCount, memoryBudgetBytes / Math.max(1, foldBytes)));
+    }
+
+    private void evaluateFold(SVM model, Mat samples, int[] groundTruth, int[] rowFolds, int testFold, int[] heldOut) {
+        int testRows = 0;
+        for (int fold : rowFolds) {
+            if (fold == testFold) {
+                testRows++;
+            }
+        }
+        int trainRows = rowFolds.length - testRows;
+        if (testRows == 0 || trainRows == 0) {
+            throw new IllegalArgumentException("Блок " + testFold + " перехресної перевірки порожній");
         }
 
-        double accuracy = computeAccuracy(labels, predictions);
-        int numClasses = getNumClasses(labels);
-        int[][] confusionMatrix = computeConfusionMatrix(labels, predictions, numClasses);
+        try (PointerScope scope = new PointerScope()) {
+            Mat trainSamples = new Mat(trainRows, samples.cols(), samples.type());
+            Mat trainLabels = new Mat(trainRows, 1, opencv_core.CV_32S);
+            try (IntIndexer labelIndexer = trainLabels.createIndexer()) {
+                int trainRow = 0;
+                for (int i = 0; i < rowFolds.length; i++) {
+                    if (rowFolds[i] != testFold) {
+                        samples.row(i).copyTo(trainSamples.row(trainRow));
+                        labelIndexer.put(trainRow++, 0, groundTruth[i]);
+                    }
+                }
+            }
+
+            model.train(trainSamples, opencv_ml.ROW_SAMPLE, trainLabels);
+            // Відкладені рядки копіюються лише після звільнення навчальної копії, щоб не тримати обидві
+            trainSamples.release();
+
+            Mat testSamples = new Mat(testRows, samples.cols(), samples.type());
+            int[] testIndices = new int[testRows];
+            int testRow = 0;
+            for (int i = 0; i < rowFolds.length; i++) {
+                if (rowFolds[i] == testFold) {
+                    samples.row(i).copyTo(testSamples.row(testRow));
+                    testIndices[testRow++] = i;
+                }
+            }
+
+            Mat results = new Mat();
+            model.predict(testSamples, results, 0);
+            try (FloatIndexer resultIndexer = results.createIndexer()) {
+                for (int i = 0; i < testRows; i++) {
+                    heldOut[testIndices[i]] = (int) resultIndexer.get(i, 0);
+                }
+            }
+        } finally {
+            model.deallocate();
+        }
+        log.info("Cross-validation fold {} evaluated on {} held-out rows", testFold, testRows);
+    }
+
+    private static void acquire(Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Cross-validation was interrupted", e);
+        }
+    }
+
+    private static void await(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Cross-validation was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Cross-validation failed", e.getCause());
+        }
+    }
+
+    private ModelMetrics fromPredictions(List<Integer> groundTruth, List<Integer> predictions, Integer folds) {
+        double accuracy = computeAccuracy(groundTruth, predictions);
+        int numClasses = Math.max(getNumClasses(groundTruth), getNumClasses(predictions));
+        int[][] confusionMatrix = computeConfusionMatrix(groundTruth, predictions, numClasses);
         Map<Integer, ClassMetrics> perClassMetrics = computePerClassMetrics(confusionMatrix);
 
-        return new ModelMetrics(accuracy, confusionMatrix, perClassMetrics);
+        return new ModelMetrics(accuracy, confusionMatrix, perClassMetrics, folds);
     }
 
     public void save(ModelMetrics metrics, String blobName) {
@@ -95,7 +294,7 @@ public class MetricsCalculator {
             return objectMapper.readValue(data, ModelMetrics.class);
         } catch (Exception e) {
             log.error("Не вдалося завантажити метрики: {}", blobName, e);
-            return new ModelMetrics(0.0, new int[0][0], Map.of());
+            return new ModelMetrics(0.0, new int[0][0], Map.of(), null);
         }
     }
 
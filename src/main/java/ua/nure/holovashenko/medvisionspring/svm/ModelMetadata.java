@@ -0,0 +1,33 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Метадані версії моделі, що зберігаються поруч з файлом моделі.
+ *
+ * @param featureType   ознаки, на яких натреновано модель (null для версій до появи екстракторів)
+ * @param pcaComponents кількість компонент PCA-проєкції {version}.pca (null — модель працює на ознаках напряму)
+ * @param channelMode   канали вхідного зображення (null для кольорових моделей до появи режиму)
+ */
+public record ModelMetadata(
+        String version,
+        LocalDateTime createdAt,
+        Map<String, Integer> labelMap,
+        ModelMetrics metrics,
+        FeatureType featureType,
+        Integer pcaComponents,
+        ChannelMode channelMode
+) {
+
+    /**
+     * Екстрактор ознак цієї версії; старі моделі навчені на сирих пікселях.
+     */
+    public FeatureExtractor featureExtractor() {
+        return (featureType != null ? featureType : FeatureType.RAW).extractor();
+    }
+
+    public ChannelMode inputChannels() {
+        return channelMode != null ? channelMode : ChannelMode.COLOR;
+    }
+}
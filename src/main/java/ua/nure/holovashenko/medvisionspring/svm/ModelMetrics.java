@@ -2,8 +2,13 @@ package ua.nure.holovashenko.medvisionspring.svm;
 
 import java.util.Map;
 
+/**
+ * @param crossValidationFolds кількість блоків перехресної перевірки, на відкладених частинах
+ *                             яких отримано метрики (null — метрики на навчальній вибірці)
+ */
 public record ModelMetrics(
         double accuracy,
         int[][] confusionMatrix,
-        Map<Integer, MetricsCalculator.ClassMetrics> perClassMetrics
+        Map<Integer, MetricsCalculator.ClassMetrics> perClassMetrics,
+        Integer crossValidationFolds
 ) {}
@@ -0,0 +1,136 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_ml.SVM;
+import org.bytedeco.opencv.opencv_ml.StatModel;
+
+import java.util.function.Supplier;
+
+/**
+ * Незмінний знімок версії моделі. Після публікації в реєстрі модель не змінюється,
+ * тому запити, що вже отримали знімок, безпечно завершуються навіть після заміни версії.
+ *
+ * @param modelLoader модель OpenCV; для версій з бінарним файлом ваг завантажується з XML
+ *                    лише за першого звернення (SVM::predict, збереження), а не під час старту
+ * @param scorer      швидкий лінійний класифікатор (null — використовується SVM::predict)
+ */
+public record ModelSnapshot(SvmModelType type, Supplier<SVM> modelLoader, ModelMetadata metadata, PcaProjection pca,
+                            SvmScorer scorer) {
+
+    public static Supplier<SVM> loaded(SVM model) {
+        return () -> model;
+    }
+
+    /**
+     * Завантажує модель один раз за першого виклику get().
+     */
+    public static Supplier<SVM> lazy(Supplier<SVM> loader) {
+        return new Supplier<>() {
+            private volatile SVM model;
+
+            @Override
+            public SVM get() {
+                SVM result = model;
+                if (result == null) {
+                    synchronized (this) {
+                        result = model;
+                        if (result == null) {
+                            result = loader.get();
+                            model = result;
+                        }
+                    }
+                }
+                return result;
+            }
+        };
+    }
+
+    public SVM model() {
+        return modelLoader.get();
+    }
+
+    public String version() {
+        return metadata.version();
+    }
+
+    public ModelMetrics metrics() {
+        return metadata.metrics();
+    }
+
+    public FeatureExtractor featureExtractor() {
+        return metadata.featureExtractor();
+    }
+
+    public ChannelMode channelMode() {
+        return metadata.inputChannels();
+    }
+
+    /**
+     * Мітки класів для рядків матриці ознак: через лінійний скорер (PCA вже згорнута у ваги)
+     * або, якщо його немає, через SVM::predict на проєктованих ознаках.
+     */
+    public int[] predict(Mat features) {
+        if (scorer != null) {
+            return scorer.predict(features);
+        }
+
+        try (PointerScope scope = new PointerScope()) {
+            Mat results = new Mat();
+            model().predict(modelInput(features), results, 0);
+
+            int[] labels = new int[features.rows()];
+            try (FloatIndexer indexer = results.createIndexer()) {
+                for (int i = 0; i < labels.length; i++) {
+                    labels[i] = (int) indexer.get(i, 0);
+                }
+            }
+            return labels;
+        }
+    }
+
+    /**
+     * Мітки з балами класів і впевненістю. Лінійні моделі рахуються скорером; для нелінійної
+     * моделі з двома класами значення функції рішення дає SVM::predict з RAW_OUTPUT,
+     * з більшою кількістю класів OpenCV повертає лише мітки.
+     */
+    public InferenceResult[] infer(Mat features, float temperature) {
+        if (scorer != null) {
+            return scorer.infer(features, temperature);
+        }
+
+        int[] classLabels = metadata.labelMap() != null
+                ? metadata.labelMap().values().stream().mapToInt(Integer::intValue).distinct().sorted().toArray()
+                : new int[0];
+        InferenceResult[] results = new InferenceResult[features.rows()];
+        if (classLabels.length != 2) {
+            int[] labels = predict(features);
+            for (int i = 0; i < labels.length; i++) {
+                results[i] = InferenceResult.labelOnly(labels[i]);
+            }
+            return results;
+        }
+
+        try (PointerScope scope = new PointerScope()) {
+            Mat decisions = new Mat();
+            model().predict(modelInput(features), decisions, StatModel.RAW_OUTPUT);
+            try (FloatIndexer indexer = decisions.createIndexer()) {
+                for (int i = 0; i < results.length; i++) {
+                    float decision = indexer.get(i, 0);
+                    int label = decision > 0 ? classLabels[0] : classLabels[1];
+                    results[i] = InferenceResult.fromDecisions(label, new float[]{decision}, classLabels, temperature);
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Ознаки у вигляді, який очікує модель: PCA-проєкція, якщо вона є у версії,
+     * інакше ті самі ознаки. Нова матриця належить PointerScope викликача.
+     */
+    public Mat modelInput(Mat features) {
+        return pca != null ? pca.project(features) : features;
+    }
+}
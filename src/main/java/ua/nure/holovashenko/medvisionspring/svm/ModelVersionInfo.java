@@ -0,0 +1,13 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import java.time.LocalDateTime;
+
+public record ModelVersionInfo(
+        SvmModelType type,
+        String version,
+        LocalDateTime createdAt,
+        Double accuracy,
+        ChannelMode channelMode,
+        FeatureType featureType,
+        boolean active
+) {}
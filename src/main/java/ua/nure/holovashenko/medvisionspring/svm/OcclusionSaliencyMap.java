@@ -0,0 +1,152 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Карта чутливості лінійної моделі повного зображення до закриття областей.
+ * <p>
+ * Для передбаченого класу береться сума його функцій рішення проти інших класів
+ * (w_k = Σ ±w_пари). Закриття вікна PATCH_SIZE x PATCH_SIZE обнуляє внески ознак, що
+ * припадають на нього, тож функція рішення зменшується на суму карти внесків w_k ⊙ f
+ * у цьому вікні. Суми для всіх вікон з кроком 1 беруться з інтегрального зображення
+ * замість окремого predict для кожної закритої копії, після чого кожен піксель отримує
+ * середню чутливість вікон, що його покривають. Додатні значення — області, що
+ * підтримують діагноз.
+ */
+final class OcclusionSaliencyMap {
+
+    private static final int WINDOW = ImagePatchExtractor.PATCH_SIZE;
+
+    private OcclusionSaliencyMap() {
+    }
+
+    /**
+     * @param image          зображення, з якого обчислено ознаки
+     * @param features       вектор ознак зображення (1 x featureLength)
+     * @param predictedLabel клас, чутливість до якого показує карта
+     */
+    static HeatmapGrid compute(Mat image, Mat features, FeatureExtractor extractor, SvmScorer scorer,
+                               int predictedLabel) {
+        int rows = image.rows();
+        int cols = image.cols();
+
+        float[] contributions = new float[rows * cols];
+        try (PointerScope scope = new PointerScope()) {
+            Mat map = extractor.contributionMap(image, features, classWeights(scorer, predictedLabel));
+            new FloatPointer(map.data()).get(contributions);
+        }
+
+        int windowRows = Math.max(rows - WINDOW + 1, 1);
+        int windowCols = Math.max(cols - WINDOW + 1, 1);
+        int height = Math.min(WINDOW, rows);
+        int width = Math.min(WINDOW, cols);
+
+        double[] windowSums = windowSums(integral(contributions, rows, cols), cols, windowRows, windowCols, height, width);
+
+        // Кожен піксель покривають вікна з лівим верхнім кутом у [y - WINDOW + 1, y] x [x - WINDOW + 1, x]
+        double[] windowIntegral = integral(windowSums, windowRows, windowCols);
+        float[] values = new float[rows * cols];
+        for (int y = 0; y < rows; y++) {
+            int top = Math.max(y - height + 1, 0);
+            int bottom = Math.min(y, windowRows - 1) + 1;
+            for (int x = 0; x < cols; x++) {
+                int left = Math.max(x - width + 1, 0);
+                int right = Math.min(x, windowCols - 1) + 1;
+                double sum = rectSum(windowIntegral, windowCols, top, left, bottom, right);
+                values[y * cols + x] = (float) (sum / ((bottom - top) * (right - left)));
+            }
+        }
+
+        return new HeatmapGrid(rows, cols, 1, values, rows, cols);
+    }
+
+    /**
+     * Розподіляє внески клітинок сітки gridRows x gridCols рівномірно по їхніх пікселях
+     * (останні рядок і стовпець клітинок забирають залишок зображення).
+     */
+    static Mat spreadOverCells(float[] cellContributions, int gridRows, int gridCols, int rows, int cols) {
+        Mat map = new Mat(rows, cols, opencv_core.CV_32F);
+        float[] values = new float[rows * cols];
+        int cellHeight = rows / gridRows;
+        int cellWidth = cols / gridCols;
+        for (int y = 0; y < rows; y++) {
+            int cellRow = Math.min(y / cellHeight, gridRows - 1);
+            int height = cellRow == gridRows - 1 ? rows - cellRow * cellHeight : cellHeight;
+            for (int x = 0; x < cols; x++) {
+                int cellCol = Math.min(x / cellWidth, gridCols - 1);
+                int width = cellCol == gridCols - 1 ? cols - cellCol * cellWidth : cellWidth;
+                values[y * cols + x] = cellContributions[cellRow * gridCols + cellCol] / (height * width);
+            }
+        }
+        new FloatPointer(map.data()).put(values);
+        return map;
+    }
+
+    // Пари, де клас стоїть першим, голосують за нього при додатному значенні, другим — при від'ємному
+    private static float[] classWeights(SvmScorer scorer, int label) {
+        int[] classLabels = scorer.classLabels();
+        float[][] weights = scorer.weightRows();
+        float[] combined = new float[scorer.featureLength()];
+
+        int pair = 0;
+        for (int a = 0; a < classLabels.length; a++) {
+            for (int b = a + 1; b < classLabels.length; b++, pair++) {
+                float sign = classLabels[a] == label ? 1f : classLabels[b] == label ? -1f : 0f;
+                if (sign != 0f) {
+                    for (int i = 0; i < combined.length; i++) {
+                        combined[i] += sign * weights[pair][i];
+                    }
+                }
+            }
+        }
+        return combined;
+    }
+
+    private static double[] integral(float[] values, int rows, int cols) {
+        try (PointerScope scope = new PointerScope()) {
+            Mat source = new Mat(rows, cols, opencv_core.CV_32F);
+            new FloatPointer(source.data()).put(values);
+            return integral(source);
+        }
+    }
+
+    private static double[] integral(double[] values, int rows, int cols) {
+        try (PointerScope scope = new PointerScope()) {
+            Mat source = new Mat(rows, cols, opencv_core.CV_64F);
+            new DoublePointer(source.data()).put(values);
+            return integral(source);
+        }
+    }
+
+    // (rows + 1) x (cols + 1), нульові перший рядок і стовпець
+    private static double[] integral(Mat source) {
+        Mat sums = new Mat();
+        opencv_imgproc.integral(source, sums, opencv_core.CV_64F);
+        double[] values = new double[(source.rows() + 1) * (source.cols() + 1)];
+        new DoublePointer(sums.data()).get(values);
+        return values;
+    }
+
+    // Зміна функції рішення при закритті кожного вікна height x width
+    private static double[] windowSums(double[] integral, int cols, int windowRows, int windowCols,
+                                       int height, int width) {
+        double[] sums = new double[windowRows * windowCols];
+        for (int y = 0; y < windowRows; y++) {
+            for (int x = 0; x < windowCols; x++) {
+                sums[y * windowCols + x] = rectSum(integral, cols, y, x, y + height, x + width);
+            }
+        }
+        return sums;
+    }
+
+    private static double rectSum(double[] integral, int cols, int top, int left, int bottom, int right) {
+        int stride = cols + 1;
+        return integral[bottom * stride + right] - integral[top * stride + right]
+                - integral[bottom * stride + left] + integral[top * stride + left];
+    }
+}
@@ -0,0 +1,351 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Проєкція ознак на головні компоненти (PCA), що зберігається разом з версією моделі.
+ * <p>
+ * Навчання не створює центровану копію матриці: середнє рахується одним проходом
+ * по рядках, а рядки центруються блоками по {@value #FIT_BLOCK_ROWS}. Коли компонент
+ * небагато, вони знаходяться ітераціями підпростору: кілька проходів по всіх рядках множать
+ * коваріацію на d x (k + {@value #OVERSAMPLING}) базис, і власна задача має лише цей розмір.
+ * Інакше задача точна: власні вектори коваріації d x d, накопиченої по всіх рядках, або,
+ * якщо ознак більше, ніж рядків вибірки, — через матрицю Грама m x m на не більше ніж
+ * maxFitRows рівномірно вибраних рядках (власні вектори коваріації = Sᵀu / ||Sᵀu||).
+ */
+@Slf4j
+public final class PcaProjection {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int FIT_BLOCK_ROWS = 256;
+    // Додаткові вектори підпростору і кількість степеневих ітерацій для точності перших k компонент
+    private static final int OVERSAMPLING = 10;
+    private static final int POWER_ITERATIONS = 2;
+    private static final long SUBSPACE_SEED = 42;
+
+    private final Mat mean;
+    private final Mat eigenvectors;
+    private final Mat meanProjection;
+
+    private PcaProjection(Mat mean, Mat eigenvectors) {
+        this.mean = retain(mean);
+        this.eigenvectors = retain(eigenvectors);
+
+        Mat projection = new Mat();
+        opencv_core.gemm(mean, eigenvectors, 1.0, new Mat(), 0.0, projection, opencv_core.GEMM_2_T);
+        this.meanProjection = retain(projection);
+    }
+
+    /**
+     * @param data       матриця ознак CV_32F (рядок на зразок)
+     * @param components бажана кількість компонент (обмежується рангом вибірки)
+     * @param maxFitRows максимальна кількість рядків для точного обчислення компонент через матрицю Грама
+     */
+    public static PcaProjection fit(Mat data, int components, int maxFitRows) {
+        int rows = data.rows();
+        int sampleRows = Math.min(rows, Math.max(maxFitRows, 2));
+        int subspace = components + OVERSAMPLING;
+
+        try (PointerScope scope = new PointerScope()) {
+            Mat mean64 = new Mat();
+            opencv_core.reduce(data, mean64, 0, opencv_core.REDUCE_AVG, opencv_core.CV_64F);
+            Mat mean = new Mat();
+            mean64.convertTo(mean, opencv_core.CV_32F);
+
+            // Точна власна задача має розмір min(d, m)² (4096² для патчів 64x64), тож для кількох
+            // компонент вистачає підпростору; точний шлях лишається, коли k порівнянне з min(d, m)
+            boolean truncated = 2 * subspace <= Math.min(data.cols(), sampleRows);
+            boolean covariance = !truncated && data.cols() <= sampleRows;
+
+            Mat eigenvalues = new Mat();
+            Mat vectors = new Mat();
+            Mat basis = null;
+            double total;
+            if (truncated) {
+                basis = subspaceBasis(data, mean, subspace);
+                double[] sumSquares = new double[1];
+                Mat scatterBasis = scatterTimes(data, mean, basis, sumSquares);
+                opencv_core.eigen(restrictedScatter(basis, scatterBasis), eigenvalues, vectors);
+                total = sumSquares[0];
+            } else {
+                Mat scatter = covariance ? covarianceMatrix(data, mean) : gramMatrix(data, mean, sampleRows);
+                opencv_core.eigen(scatter, eigenvalues, vectors);
+                total = opencv_core.trace(scatter).get(0);
+            }
+
+            int kept = 0;
+            double retained = 0;
+            try (DoubleIndexer values = eigenvalues.createIndexer()) {
+                double largest = values.get(0, 0);
+                for (int i = 0; i < eigenvalues.rows() && kept < components; i++) {
+                    double value = values.get(i, 0);
+                    if (value <= largest * 1e-9) {
+                        break;
+                    }
+                    retained += value;
+                    kept++;
+                }
+            }
+            if (kept == 0) {
+                throw new IllegalStateException("PCA: вибірка не має дисперсії");
+            }
+
+            Mat leading = new Mat();
+            vectors.rowRange(0, kept).convertTo(leading, opencv_core.CV_32F);
+            Mat eigenvectors;
+            if (truncated) {
+                // Власні вектори в просторі ознак: W Qᵀ
+                eigenvectors = new Mat();
+                opencv_core.gemm(leading, basis, 1.0, new Mat(), 0.0, eigenvectors, opencv_core.GEMM_2_T);
+            } else {
+                eigenvectors = covariance ? leading : gramToCovarianceVectors(data, mean, sampleRows, leading);
+            }
+            for (int i = 0; i < kept; i++) {
+                opencv_core.normalize(eigenvectors.row(i), eigenvectors.row(i));
+            }
+
+            log.info("PCA fitted ({}) on {} of {} rows: {} -> {} dimensions, {}% variance retained",
+                    truncated ? "subspace iteration" : covariance ? "covariance" : "gram",
+                    covariance || truncated ? rows : sampleRows, rows, data.cols(), kept,
+                    String.format("%.1f", total > 0 ? retained * 100 / total : 0));
+
+            return new PcaProjection(mean, eigenvectors);
+        }
+    }
+
+    // Ортонормований базис d x l, що наближає перші l власних векторів коваріації (CV_32F)
+    private static Mat subspaceBasis(Mat data, Mat mean, int subspace) {
+        Random random = new Random(SUBSPACE_SEED);
+        Mat start = new Mat(data.cols(), subspace, opencv_core.CV_32F);
+        try (FloatIndexer indexer = start.createIndexer()) {
+            for (int i = 0; i < data.cols(); i++) {
+                for (int j = 0; j < subspace; j++) {
+                    indexer.put(i, j, (float) random.nextGaussian());
+                }
+            }
+        }
+
+        Mat basis = orthonormalColumns(start);
+        for (int i = 0; i < POWER_ITERATIONS; i++) {
+            basis = orthonormalColumns(scatterTimes(data, mean, basis, null));
+        }
+        return basis;
+    }
+
+    // Qᵀ S Q (l x l, CV_64F), симетризована від похибок округлення
+    private static Mat restrictedScatter(Mat basis, Mat scatterBasis) {
+        Mat basis64 = new Mat();
+        basis.convertTo(basis64, opencv_core.CV_64F);
+        Mat restricted = new Mat();
+        opencv_core.gemm(basis64, scatterBasis, 1.0, new Mat(), 0.0, restricted, opencv_core.GEMM_1_T);
+        Mat transposed = new Mat();
+        opencv_core.transpose(restricted, transposed);
+        opencv_core.addWeighted(restricted, 0.5, transposed, 0.5, 0.0, restricted);
+        return restricted;
+    }
+
+    private static Mat orthonormalColumns(Mat matrix) {
+        Mat matrix64 = new Mat();
+        matrix.convertTo(matrix64, opencv_core.CV_64F);
+        Mat singularValues = new Mat();
+        Mat left = new Mat();
+        Mat right = new Mat();
+        opencv_core.SVDecomp(matrix64, singularValues, left, right);
+        Mat orthonormal = new Mat();
+        left.convertTo(orthonormal, opencv_core.CV_32F);
+        return orthonormal;
+    }
+
+    // S Q = Σ Cᵦᵀ (Cᵦ Q) по блоках центрованих рядків (d x l, CV_64F); sumSquares[0] — слід S
+    private static Mat scatterTimes(Mat data, Mat mean, Mat basis, double[] sumSquares) {
+        Mat result = Mat.zeros(data.cols(), basis.cols(), opencv_core.CV_64F).asMat();
+        Mat offsets = opencv_core.repeat(mean, Math.min(data.rows(), FIT_BLOCK_ROWS), 1);
+        Mat centered = new Mat();
+        Mat coordinates = new Mat();
+        Mat product = new Mat();
+        for (int start = 0; start < data.rows(); start += FIT_BLOCK_ROWS) {
+            int end = Math.min(data.rows(), start + FIT_BLOCK_ROWS);
+            opencv_core.subtract(data.rowRange(start, end), offsets.rowRange(0, end - start), centered);
+            opencv_core.gemm(centered, basis, 1.0, new Mat(), 0.0, coordinates);
+            opencv_core.gemm(centered, coordinates, 1.0, new Mat(), 0.0, product, opencv_core.GEMM_1_T);
+            opencv_core.add(result, product, result, new Mat(), opencv_core.CV_64F);
+            if (sumSquares != null) {
+                sumSquares[0] += opencv_core.norm(centered, opencv_core.NORM_L2SQR, null);
+            }
+        }
+        return result;
+    }
+
+    // Σ CᵦᵀCᵦ по блоках центрованих рядків (CV_64F, d x d)
+    private static Mat covarianceMatrix(Mat data, Mat mean) {
+        Mat covariance = Mat.zeros(data.cols(), data.cols(), opencv_core.CV_64F).asMat();
+        Mat offsets = opencv_core.repeat(mean, Math.min(data.rows(), FIT_BLOCK_ROWS), 1);
+        Mat centered = new Mat();
+        Mat product = new Mat();
+        for (int start = 0; start < data.rows(); start += FIT_BLOCK_ROWS) {
+            int end = Math.min(data.rows(), start + FIT_BLOCK_ROWS);
+            opencv_core.subtract(data.rowRange(start, end), offsets.rowRange(0, end - start), centered);
+            opencv_core.gemm(centered, centered, 1.0, new Mat(), 0.0, product, opencv_core.GEMM_1_T);
+            opencv_core.add(covariance, product, covariance, new Mat(), opencv_core.CV_64F);
+        }
+        return covariance;
+    }
+
+    // S Sᵀ для m рівномірно вибраних центрованих рядків, по парах блоків (CV_64F, m x m)
+    private static Mat gramMatrix(Mat data, Mat mean, int sampleRows) {
+        Mat gram = new Mat(sampleRows, sampleRows, opencv_core.CV_64F);
+        Mat left = new Mat();
+        Mat right = new Mat();
+        Mat product = new Mat();
+        Mat transposed = new Mat();
+        for (int i = 0; i < sampleRows; i += FIT_BLOCK_ROWS) {
+            int iEnd = Math.min(sampleRows, i + FIT_BLOCK_ROWS);
+            centeredSample(data, mean, sampleRows, i, iEnd, left);
+            for (int j = i; j < sampleRows; j += FIT_BLOCK_ROWS) {
+                int jEnd = Math.min(sampleRows, j + FIT_BLOCK_ROWS);
+                Mat other = j == i ? left : centeredSample(data, mean, sampleRows, j, jEnd, right);
+                opencv_core.gemm(left, other, 1.0, new Mat(), 0.0, product, opencv_core.GEMM_2_T);
+                product.convertTo(gram.rowRange(i, iEnd).colRange(j, jEnd), opencv_core.CV_64F);
+                if (j != i) {
+                    opencv_core.transpose(product, transposed);
+                    transposed.convertTo(gram.rowRange(j, jEnd).colRange(i, iEnd), opencv_core.CV_64F);
+                }
+            }
+        }
+        return gram;
+    }
+
+    // Власні вектори коваріації Uᵀ S = Σ Uᵦᵀ Sᵦ по блоках вибірки (ще не нормовані)
+    private static Mat gramToCovarianceVectors(Mat data, Mat mean, int sampleRows, Mat basis) {
+        Mat eigenvectors = Mat.zeros(basis.rows(), data.cols(), opencv_core.CV_32F).asMat();
+        Mat centered = new Mat();
+        for (int start = 0; start < sampleRows; start += FIT_BLOCK_ROWS) {
+            int end = Math.min(sampleRows, start + FIT_BLOCK_ROWS);
+            centeredSample(data, mean, sampleRows, start, end, centered);
+            opencv_core.gemm(basis.colRange(start, end), centered, 1.0, eigenvectors, 1.0, eigenvectors);
+        }
+        return eigenvectors;
+    }
+
+    // Рядки вибірки [start, end) з кроком rows / sampleRows, центровані в target
+    private static Mat centeredSample(Mat data, Mat mean, int sampleRows, int start, int end, Mat target) {
+        target.create(end - start, data.cols(), opencv_core.CV_32F);
+        for (int i = start; i < end; i++) {
+            int source = (int) ((long) i * data.rows() / sampleRows);
+            opencv_core.subtract(data.row(source), mean, target.row(i - start));
+        }
+        return target;
+    }
+
+    public int inputLength() {
+        return eigenvectors.cols();
+    }
+
+    public int components() {
+        return eigenvectors.rows();
+    }
+
+    /**
+     * Середнє навчальної вибірки (1 x inputLength, CV_32F).
+     */
+    public Mat mean() {
+        return mean;
+    }
+
+    /**
+     * Головні компоненти по рядках (components x inputLength, CV_32F).
+     */
+    public Mat eigenvectors() {
+        return eigenvectors;
+    }
+
+    /**
+     * Проєктує рядки ознак: (X - mean) * Eᵀ = X * Eᵀ - mean * Eᵀ, без центрованої копії X.
+     *
+     * @return нова матриця samples.rows() x components (CV_32F)
+     */
+    public Mat project(Mat samples) {
+        if (samples.cols() != inputLength()) {
+            throw new IllegalArgumentException("PCA очікує " + inputLength() + " ознак, отримано " + samples.cols());
+        }
+
+        Mat projected = new Mat();
+        try (PointerScope scope = new PointerScope()) {
+            Mat offsets = opencv_core.repeat(meanProjection, samples.rows(), 1);
+            opencv_core.gemm(samples, eigenvectors, 1.0, offsets, -1.0, projected, opencv_core.GEMM_2_T);
+        }
+        return projected;
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(components());
+            out.writeInt(inputLength());
+            writeRows(out, mean);
+            writeRows(out, eigenvectors);
+        }
+    }
+
+    public static PcaProjection read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int format = in.readInt();
+            if (format != FORMAT_VERSION) {
+                throw new IOException("Unsupported PCA format " + format);
+            }
+
+            int components = in.readInt();
+            int inputLength = in.readInt();
+            Mat mean = new Mat(1, inputLength, opencv_core.CV_32F);
+            Mat eigenvectors = new Mat(components, inputLength, opencv_core.CV_32F);
+            readRows(in, mean);
+            readRows(in, eigenvectors);
+            return new PcaProjection(mean, eigenvectors);
+        }
+    }
+
+    private static void writeRows(DataOutputStream out, Mat mat) throws IOException {
+        float[] row = new float[mat.cols()];
+        ByteBuffer buffer = ByteBuffer.allocate(row.length * Float.BYTES);
+        FloatPointer data = new FloatPointer(mat.data());
+        for (int r = 0; r < mat.rows(); r++) {
+            data.position((long) r * row.length).get(row);
+            buffer.clear();
+            buffer.asFloatBuffer().put(row);
+            out.write(buffer.array());
+        }
+    }
+
+    private static void readRows(DataInputStream in, Mat mat) throws IOException {
+        float[] row = new float[mat.cols()];
+        byte[] bytes = new byte[row.length * Float.BYTES];
+        FloatPointer data = new FloatPointer(mat.data());
+        for (int r = 0; r < mat.rows(); r++) {
+            in.readFully(bytes);
+            ByteBuffer.wrap(bytes).asFloatBuffer().get(row);
+            data.position((long) r * row.length).put(row);
+        }
+    }
+
+    // Матриці проєкції живуть разом зі знімком моделі, а не в PointerScope викликача
+    private static Mat retain(Mat mat) {
+        PointerScope scope = PointerScope.getInnerScope();
+        if (scope != null) {
+            mat.retainReference();
+            scope.detach(mat);
+        }
+        return mat;
+    }
+}
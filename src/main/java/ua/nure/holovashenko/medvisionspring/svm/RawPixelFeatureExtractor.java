@@ -0,0 +1,50 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Пікселі зображення як є (TARGET_WIDTH * TARGET_HEIGHT * channels значень).
+ * Формат ознак моделей, натренованих до появи екстракторів.
+ */
+class RawPixelFeatureExtractor implements FeatureExtractor {
+
+    @Override
+    public FeatureType type() {
+        return FeatureType.RAW;
+    }
+
+    @Override
+    public int featureLength(int channels) {
+        return ImageUtils.TARGET_WIDTH * ImageUtils.TARGET_HEIGHT * channels;
+    }
+
+    @Override
+    public void extractInto(Mat image, Mat features, int row) {
+        Mat source = image.isContinuous() ? image : image.clone();
+        source.reshape(1, 1).convertTo(features.row(row), opencv_core.CV_32F);
+    }
+
+    /**
+     * Внесок пікселя — сума w_i * x_i його каналів (точний внесок у функцію рішення).
+     */
+    @Override
+    public Mat contributionMap(Mat image, Mat features, float[] weights) {
+        int channels = image.channels();
+        float[] values = new float[weights.length];
+        try (FloatIndexer indexer = features.createIndexer()) {
+            indexer.get(0, 0, values);
+        }
+
+        float[] pixels = new float[image.rows() * image.cols()];
+        for (int i = 0; i < values.length; i++) {
+            pixels[i / channels] += weights[i] * values[i];
+        }
+
+        Mat map = new Mat(image.rows(), image.cols(), opencv_core.CV_32F);
+        new FloatPointer(map.data()).put(pixels);
+        return map;
+    }
+}
@@ -0,0 +1,32 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+/**
+ * Спосіб обчислення передбачень лінійної моделі.
+ */
+public enum ScoringEngine {
+    /** SVM::predict з OpenCV для кожного виклику. */
+    OPENCV("opencv"),
+    /** Одне множення матриць ознак на ваги (OpenCV gemm), вигідне для пакетів патчів. */
+    GEMM("gemm"),
+    /** SIMD-скалярні добутки на Java Vector API без JNI, вигідні для поодиноких зразків. */
+    VECTOR("vector");
+
+    private final String key;
+
+    ScoringEngine(String key) {
+        this.key = key;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public static ScoringEngine fromKey(String key) {
+        for (ScoringEngine engine : values()) {
+            if (engine.key.equalsIgnoreCase(key)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown scoring engine: " + key);
+    }
+}
@@ -0,0 +1,66 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.opencv.opencv_ml.SVM;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Перетворює збережені XML-моделі OpenCV на бінарні файли ваг ({@link LinearModelFile}) поруч з ними,
+ * щоб перший запуск застосунку не розбирав XML. Проєкція {name}.pca поруч з моделлю враховується.
+ * Нелінійні моделі пропускаються: для них застосунок і далі завантажує XML.
+ * <p>
+ * Запуск із зібраного jar:
+ * <pre>
+ * java -Dloader.main=ua.nure.holovashenko.medvisionspring.svm.SvmModelConverter \
+ *      -cp app.jar org.springframework.boot.loader.launch.PropertiesLauncher \
+ *      svm-models/svm_full_model.xml svm-models/svm_patch_model.xml
+ * </pre>
+ */
+@Slf4j
+public final class SvmModelConverter {
+
+    private SvmModelConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            log.error("Usage: SvmModelConverter <model.xml>...");
+            System.exit(2);
+        }
+
+        for (String arg : args) {
+            convert(Paths.get(arg));
+        }
+    }
+
+    /**
+     * @return шлях до створеного бінарного файлу або null, якщо модель не лінійна
+     */
+    static Path convert(Path modelPath) throws IOException {
+        if (!Files.exists(modelPath)) {
+            throw new IOException("Model file not found: " + modelPath);
+        }
+
+        Path binaryPath = SvmModelRegistry.binaryPath(modelPath);
+        String baseName = binaryPath.getFileName().toString();
+        Path pcaPath = modelPath.resolveSibling(baseName.substring(0, baseName.length() - LinearModelFile.EXTENSION.length()) + ".pca");
+        PcaProjection pca = Files.exists(pcaPath) ? PcaProjection.read(pcaPath) : null;
+
+        long startedAt = System.nanoTime();
+        SVM model = SVM.load(modelPath.toString());
+        LinearSvmScorer linear = LinearSvmScorer.of(model, pca);
+        if (linear == null) {
+            log.warn("{} is not a trained linear C-SVC model, skipped", modelPath);
+            return null;
+        }
+
+        LinearModelFile.write(binaryPath, linear);
+        log.info("{} converted to {} ({} bytes) in {} ms", modelPath, binaryPath, Files.size(binaryPath),
+                (System.nanoTime() - startedAt) / 1_000_000);
+        return binaryPath;
+    }
+}
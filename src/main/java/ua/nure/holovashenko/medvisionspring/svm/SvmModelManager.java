@@ -1,20 +1,30 @@
 package ua.nure.holovashenko.medvisionspring.svm;
 
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.javacpp.indexer.IntIndexer;
 import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.global.opencv_ml;
 import org.bytedeco.opencv.opencv_core.Mat;
-import org.bytedeco.opencv.opencv_core.MatVector;
 import org.bytedeco.opencv.opencv_ml.SVM;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import ua.nure.holovashenko.medvisionspring.exception.ApiException;
 
 import java.io.File;
-import java.io.InputStream;
-import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 @Slf4j
 @Service
@@ -23,131 +33,335 @@ public class SvmModelManager {
 
     private final ImagePatchExtractor patchExtractor;
     private final MetricsCalculator metricsCalculator;
+    private final SvmModelRegistry modelRegistry;
+
     private volatile boolean modelsReady = false;
 
-    private SVM fullImageModel;
-    private SVM patchModel;
+    @Value("${svm.training.parallelism:0}")
+    private int trainingParallelism;
+
+    @Value("${svm.channel-mode:grayscale}")
+    private String channelMode;
+
+    @Value("${svm.features.full-image:hog}")
+    private String fullImageFeatures;
+
+    @Value("${svm.heatmap.mode:dense}")
+    private String heatmapMode;
+
+    @Value("${svm.heatmap.continuous:true}")
+    private boolean continuousHeatmap;
+
+    @Value("${svm.confidence.temperature:1.0}")
+    private float temperature;
+
+    @Value("${svm.cross-validation.folds:5}")
+    private int crossValidationFolds;
+
+    @Value("${svm.cross-validation.seed:42}")
+    private long crossValidationSeed;
+
+    @Value("${svm.cross-validation.memory-budget-mb:2048}")
+    private long crossValidationMemoryBudgetMb;
+
+    @Value("${svm.pca.components:0}")
+    private int pcaComponents;
+
+    @Value("${svm.pca.max-fit-rows:4096}")
+    private int pcaMaxFitRows;
+
+    @Value("${svm.opencv-threads:1}")
+    private int opencvThreads;
+
+    private final AtomicInteger extractedImages = new AtomicInteger();
+    private volatile int totalImages;
+    private volatile String trainingStage = "idle";
+    private final AtomicBoolean trainingRunning = new AtomicBoolean();
+
+    /**
+     * Обмежує внутрішній пул потоків OpenCV. Налаштування діє на весь процес (усі потоки,
+     * що викликають OpenCV, зокрема тренування), а не лише на потоки інференсу:
+     * паралелізм забезпечують власні пули застосунку, і потоки OpenCV лише конкурували б з ними за ядра.
+     */
+    @PostConstruct
+    void configureOpenCvThreads() {
+        if (opencvThreads >= 0) {
+            opencv_core.setNumThreads(opencvThreads);
+            log.info("OpenCV threads limited to {} for the whole process", opencv_core.getNumThreads());
+        }
+    }
 
     public boolean areModelsReady() {
         return modelsReady;
     }
 
     public void loadModels() {
-        try {
-            patchModel = SVM.load("svm-models/svm_patch_model.xml");
-            log.info("Patch-based SVM model successfully loaded");
-        } catch (Exception e) {
-            patchModel = SVM.create();
-            log.warn("Patch-based SVM model could not be loaded. New model created.");
-        }
-
-        try {
-            fullImageModel = SVM.load("svm-models/svm_full_model.xml");
-            log.info("Full image SVM model successfully loaded");
-        } catch (Exception e) {
-            fullImageModel = SVM.create();
-            log.warn("Full image SVM model could not be loaded. New model created.");
-        }
+        modelRegistry.loadActiveModels();
 
         modelsReady = true;
         log.info("All SVM models are ready.");
     }
 
     public void trainFullImageModel(Dataset dataset) {
-        List<Mat> featureList = new ArrayList<>();
-        Mat labels = new Mat(dataset.labels().size(), 1, opencv_core.CV_32S);
+        runExclusively(() -> doTrainFullImageModel(dataset));
+    }
 
-        for (int i = 0; i < dataset.images().size(); i++) {
-            Mat image = ImageUtils.loadAndResizeImage(dataset.images().get(i).getAbsolutePath());
+    public void trainPatchModel(Dataset dataset) {
+        runExclusively(() -> doTrainPatchModel(dataset));
+    }
 
-            if (image.empty()) {
-                throw new IllegalArgumentException("Failed to load image: " + dataset.images().get(i).getAbsolutePath());
-            }
+    /**
+     * Виконує тренування, не допускаючи паралельного запуску другого.
+     * Прапорець тримається до завершення реєстрації моделі, а не лише вилучення ознак.
+     */
+    private void runExclusively(Runnable training) {
+        if (!trainingRunning.compareAndSet(false, true)) {
+            throw new ApiException("Тренування моделі вже виконується", HttpStatus.CONFLICT);
+        }
+        try {
+            training.run();
+        } finally {
+            trainingStage = "idle";
+            trainingRunning.set(false);
+        }
+    }
+
+    private void doTrainFullImageModel(Dataset dataset) {
+        int sampleCount = dataset.images().size();
+        ChannelMode channels = ChannelMode.fromKey(channelMode);
+        FeatureExtractor extractor = FeatureType.fromKey(fullImageFeatures).extractor();
+        int featureLength = extractor.featureLength(channels.channels());
+        log.info("Training full-image model on {} {} features ({} per image)", channels, extractor.type(), featureLength);
+
+        // Підсумкова матриця виділяється один раз, кожен потік пише у свій рядок
+        Mat trainingData = new Mat(sampleCount, featureLength, opencv_core.CV_32F);
+        Mat labels = createLabels(dataset, 1);
 
-            if (!image.isContinuous()) {
-                image = image.clone();
+        extractInParallel("full-image", sampleCount, i -> {
+            try (PointerScope scope = new PointerScope()) {
+                Mat image = ImageUtils.loadAndResizeImage(dataset.images().get(i).getAbsolutePath(), channels);
+
+                if (image.empty()) {
+                    throw new IllegalArgumentException("Failed to load image: " + dataset.images().get(i).getAbsolutePath());
+                }
+
+                extractor.extractInto(image, trainingData, i);
             }
+        });
 
-            Mat feature = image.reshape(1, 1);
-            feature.convertTo(feature, opencv_core.CV_32F);
-            featureList.add(feature);
-            labels.ptr(i, 0).putInt(dataset.labels().get(i));
-        }
+        trainAndRegister(SvmModelType.FULL_IMAGE, trainingData, labels, dataset, 1, channels, extractor.type());
+    }
+
+    private void doTrainPatchModel(Dataset dataset) {
+        int imageCount = dataset.images().size();
+        int patchesPerImage = ImagePatchExtractor.patchCount(ImageUtils.TARGET_HEIGHT, ImageUtils.TARGET_WIDTH);
+        ChannelMode channels = ChannelMode.fromKey(channelMode);
+        int featureLength = ImagePatchExtractor.featureLength(channels.channels());
 
-        MatVector vector = new MatVector(featureList.toArray(new Mat[0]));
-        Mat trainingData = new Mat();
-        opencv_core.vconcat(vector, trainingData);
+        // Розмір відомий наперед з геометрії сітки патчів: N зображень x patchesPerImage рядків
+        Mat trainingData = new Mat(imageCount * patchesPerImage, featureLength, opencv_core.CV_32F);
+        Mat labels = createLabels(dataset, patchesPerImage);
 
-        fullImageModel = SVM.create();
-        fullImageModel.setKernel(SVM.LINEAR);
-        fullImageModel.setType(SVM.C_SVC);
-        fullImageModel.setC(2.67);
-        fullImageModel.setGamma(5.383);
+        extractInParallel("patch", imageCount, i -> {
+            try (PointerScope scope = new PointerScope()) {
+                Mat image = ImageUtils.loadAndResizeImage(dataset.images().get(i).getAbsolutePath(), channels);
+                patchExtractor.extractInto(image, trainingData, i * patchesPerImage);
+            }
+        });
+
+        trainAndRegister(SvmModelType.PATCH, trainingData, labels, dataset, patchesPerImage, channels, FeatureType.RAW);
+    }
+
+    /**
+     * Тренує модель на зібраній матриці ознак (за потреби спершу проєктує її на PCA-компоненти),
+     * рахує метрики та публікує нову версію. Матриці ознак і міток звільняються.
+     *
+     * @param rowsPerImage кількість послідовних рядків ознак одного зображення
+     */
+    private void trainAndRegister(SvmModelType type, Mat features, Mat labels, Dataset dataset, int rowsPerImage,
+                                  ChannelMode channels, FeatureType featureType) {
+        PcaProjection pca = fitPca(features);
+        Mat trainingData = pca != null ? projectTrainingData(pca, features) : features;
+
+        trainingStage = "training";
+        SVM model = createModel();
+        ModelMetrics metrics;
+        // Кожен блок має містити хоча б одне зображення
+        if (crossValidationFolds > 1 && dataset.labels().size() >= crossValidationFolds) {
+            metrics = trainWithCrossValidation(model, trainingData, labels, dataset, rowsPerImage);
+        } else {
+            model.train(trainingData, opencv_ml.ROW_SAMPLE, labels);
+            metrics = metricsCalculator.calculate(model, trainingData, labels);
+        }
 
-        fullImageModel.train(trainingData, opencv_ml.ROW_SAMPLE, labels);
+        // Метрики зберігаються разом з версією ({version}.json); спільний blob метрик лишається
+        // за legacy-версією, щоб відкат на неї показував її власні метрики
+        modelRegistry.register(type, model, metrics, dataset.labelMap(), channels, featureType, pca);
 
-        ModelMetrics metrics = metricsCalculator.calculate(fullImageModel, featureList, dataset.labels());
-        metricsCalculator.save(metrics, "svm-models/full_metrics.json");
+        trainingData.release();
+        labels.release();
     }
 
-    public void trainPatchModel(Dataset dataset) {
-        List<Mat> featureList = new ArrayList<>();
-        List<Integer> labelList = new ArrayList<>();
+    /**
+     * Тренує фінальну модель на всіх даних одночасно з k-блоковою перехресною перевіркою
+     * в тому самому пулі, тож за достатньої кількості ядер час близький до одного тренування.
+     * Блоки стратифікуються за зображеннями: усі патчі зображення потрапляють в один блок.
+     * PCA (без учителя) береться спільна для всіх блоків.
+     */
+    private ModelMetrics trainWithCrossValidation(SVM model, Mat trainingData, Mat labels, Dataset dataset,
+                                                  int rowsPerImage) {
+        trainingStage = "cross-validation";
+        int[] imageFolds = metricsCalculator.stratifiedFolds(dataset.labels(), crossValidationFolds, crossValidationSeed);
+        int[] rowFolds = new int[trainingData.rows()];
+        for (int row = 0; row < rowFolds.length; row++) {
+            rowFolds[row] = imageFolds[row / rowsPerImage];
+        }
 
-        for (int i = 0; i < dataset.images().size(); i++) {
-            File imageFile = dataset.images().get(i);
-            int label = dataset.labels().get(i);
+        int parallelism = trainingParallelism > 0 ? trainingParallelism : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, crossValidationFolds + 1));
+        log.info("Training with {}-fold cross-validation on {} rows", crossValidationFolds, trainingData.rows());
 
-            List<FeatureLabelPair> patches = patchExtractor.extract(imageFile, label, true);
-            for (FeatureLabelPair pair : patches) {
-                featureList.add(pair.features());
-                labelList.add(pair.label());
+        try {
+            Future<?> finalTraining = pool.submit(() -> model.train(trainingData, opencv_ml.ROW_SAMPLE, labels));
+            ModelMetrics metrics = metricsCalculator.crossValidate(
+                    this::createModel, trainingData, labels, rowFolds, crossValidationFolds, pool,
+                    crossValidationMemoryBudgetMb * 1024 * 1024);
+            finalTraining.get();
+            return metrics;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Model training was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
             }
+            throw new IllegalStateException("Model training failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
         }
+    }
 
-        Mat labels = new Mat(labelList.size(), 1, opencv_core.CV_32S);
-        for (int i = 0; i < labelList.size(); i++) {
-            labels.ptr(i, 0).putInt(labelList.get(i));
+    private PcaProjection fitPca(Mat trainingData) {
+        if (pcaComponents <= 0) {
+            return null;
         }
+        trainingStage = "pca";
+        return PcaProjection.fit(trainingData, pcaComponents, pcaMaxFitRows);
+    }
 
-        MatVector vector = new MatVector(featureList.toArray(new Mat[0]));
-        Mat trainingData = new Mat();
-        opencv_core.vconcat(vector, trainingData);
+    // Вихідна матриця звільняється одразу, тож у пам'яті не лишаються обидві
+    private Mat projectTrainingData(PcaProjection pca, Mat trainingData) {
+        Mat projected = pca.project(trainingData);
+        trainingData.release();
+        return projected;
+    }
 
-        patchModel = SVM.create();
-        patchModel.setKernel(SVM.LINEAR);
-        patchModel.setType(SVM.C_SVC);
-        patchModel.setC(2.67);
-        patchModel.setGamma(5.383);
+    private SVM createModel() {
+        SVM model = SVM.create();
+        model.setKernel(SVM.LINEAR);
+        model.setType(SVM.C_SVC);
+        model.setC(2.67);
+        model.setGamma(5.383);
+        return model;
+    }
 
-        patchModel.train(trainingData, opencv_ml.ROW_SAMPLE, labels);
+    private Mat createLabels(Dataset dataset, int rowsPerImage) {
+        Mat labels = new Mat(dataset.labels().size() * rowsPerImage, 1, opencv_core.CV_32S);
+        try (IntIndexer indexer = labels.createIndexer()) {
+            for (int i = 0; i < dataset.labels().size(); i++) {
+                int label = dataset.labels().get(i);
+                for (int r = 0; r < rowsPerImage; r++) {
+                    indexer.put((long) i * rowsPerImage + r, 0, label);
+                }
+            }
+        }
+        return labels;
+    }
 
-        ModelMetrics metrics = metricsCalculator.calculate(patchModel, featureList, labelList);
-        metricsCalculator.save(metrics, "svm-models/patch_metrics.json");
+    public TrainingProgress getTrainingProgress() {
+        return new TrainingProgress(trainingStage, extractedImages.get(), totalImages, trainingRunning.get());
     }
 
-    public int classify(File imageFile, boolean isPatch) {
-        Mat image = ImageUtils.loadAndResizeImage(imageFile.getAbsolutePath());
+    /**
+     * Паралельно обробляє зображення датасету на обмеженому пулі fork-join.
+     * Кожне завдання пише лише у свій індекс, тому порядок рядків детермінований.
+     */
+    private void extractInParallel(String stage, int total, IntConsumer task) {
+        trainingStage = stage;
+        totalImages = total;
+        extractedImages.set(0);
 
-        if (isPatch) {
-            List<FeatureLabelPair> patches = patchExtractor.extract(imageFile, -1, true);
-            Map<Integer, Integer> counts = new HashMap<>();
+        int parallelism = trainingParallelism > 0 ? trainingParallelism : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        log.info("Extracting {} features for {} images with parallelism {}", stage, total, parallelism);
 
-            for (FeatureLabelPair pair : patches) {
-                float prediction = patchModel.predict(pair.features());
-                counts.put((int) prediction, counts.getOrDefault((int) prediction, 0) + 1);
+        try {
+            pool.submit(() -> IntStream.range(0, total).parallel().forEach(i -> {
+                task.accept(i);
+                extractedImages.incrementAndGet();
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Feature extraction was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
             }
+            throw new IllegalStateException("Feature extraction failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public int classify(File imageFile, boolean isPatch) {
+        try (AnalysisImageContext context = AnalysisImageContext.fromFile(imageFile)) {
+            return classify(context, isPatch);
+        }
+    }
+
+    public int classify(AnalysisImageContext context, boolean isPatch) {
+        return infer(context, isPatch).label();
+    }
+
+    /**
+     * Діагноз разом з балами класів і впевненістю з того самого обчислення, що й мітка.
+     * Для патч-моделі мітка — найчастіший клас патчів, а бали — середні бали патчів.
+     */
+    public InferenceResult infer(AnalysisImageContext context, boolean isPatch) {
+        if (isPatch) {
+            Map<Integer, Integer> counts = countPredictions(patchPredictions(context));
+            context.classifiedBy(context.patchSnapshot());
 
-            return counts.entrySet().stream()
+            int label = counts.entrySet().stream()
                     .max(Map.Entry.comparingByValue())
                     .map(Map.Entry::getKey)
                     .orElse(-1);
+            return summarizePatches(context.patchResults(), label);
+        }
 
-        } else {
-            Mat reshaped = image.reshape(1, 1);
-            reshaped.convertTo(reshaped, opencv_core.CV_32F);
-            return (int) fullImageModel.predict(reshaped);
+        if (context.fullImageResult() == null) {
+            ModelSnapshot snapshot = modelRegistry.active(SvmModelType.FULL_IMAGE);
+            Mat features = context.fullImageFeatures(snapshot.featureExtractor(), snapshot.channelMode());
+            context.fullImageResult(snapshot.infer(features, temperature)[0]);
+            context.fullImageSnapshot(snapshot);
+        }
+        context.classifiedBy(context.fullImageSnapshot());
+        return context.fullImageResult();
+    }
+
+    private InferenceResult summarizePatches(InferenceResult[] results, int label) {
+        if (results.length == 0 || !results[0].hasScores()) {
+            return InferenceResult.labelOnly(label);
+        }
+
+        int[] classLabels = results[0].classLabels();
+        float[] meanScores = new float[classLabels.length];
+        for (InferenceResult result : results) {
+            for (int c = 0; c < meanScores.length; c++) {
+                meanScores[c] += result.classScores()[c] / results.length;
+            }
         }
+        return InferenceResult.fromScores(label, classLabels, meanScores, temperature);
     }
 
     public float evaluate(List<File> images, List<Integer> labels, boolean isPatch) {
@@ -169,81 +383,122 @@ public class SvmModelManager {
     }
 
     public Map<Integer, Integer> detectPatchPathologies(File imageFile) {
-        List<FeatureLabelPair> patches = patchExtractor.extract(imageFile, -1, true);
-        Map<Integer, Integer> pathologyCounts = new HashMap<>();
-
-        for (FeatureLabelPair patch : patches) {
-            float prediction = patchModel.predict(patch.features());
-            pathologyCounts.put((int) prediction, pathologyCounts.getOrDefault((int) prediction, 0) + 1);
+        try (AnalysisImageContext context = AnalysisImageContext.fromFile(imageFile)) {
+            return detectPatchPathologies(context);
         }
+    }
+
+    public Map<Integer, Integer> detectPatchPathologies(AnalysisImageContext context) {
+        return countPredictions(patchPredictions(context));
+    }
 
-        return pathologyCounts;
+    public HeatmapGrid getHeatmapData(File imageFile, boolean isPatchModel) {
+        try (AnalysisImageContext context = AnalysisImageContext.fromFile(imageFile)) {
+            return getHeatmapData(context, isPatchModel);
+        }
     }
 
-    public void saveModel(String path, boolean isPatchModel) {
+    public HeatmapGrid getHeatmapData(AnalysisImageContext context, boolean isPatchModel) {
         if (isPatchModel) {
-            patchModel.save(path);
-        } else {
-            fullImageModel.save(path);
+            patchPredictions(context);
+            return getHeatmapData(context, context.patchSnapshot());
         }
+        return getHeatmapData(context, modelRegistry.active(SvmModelType.FULL_IMAGE));
     }
 
-    public double[][] getHeatmapData(String imageUrl, boolean fullImage) {
-        if (!areModelsReady()) {
-            throw new ApiException("SVM models are still loading. Please try again later.", HttpStatus.SERVICE_UNAVAILABLE);
+    /**
+     * Теплова карта, обчислена саме вказаною версією моделі (для ключа кешу).
+     */
+    public HeatmapGrid getHeatmapData(AnalysisImageContext context, ModelSnapshot snapshot) {
+        if (snapshot.type() == SvmModelType.FULL_IMAGE) {
+            return occlusionSaliency(context, snapshot);
+        }
+        if (heatmapMode(snapshot) == HeatmapMode.DENSE) {
+            return DensePatchHeatmap.compute(context.image(snapshot.channelMode()), snapshot.scorer(),
+                    continuousHeatmap, temperature);
         }
 
-        try (InputStream in = URI.create(imageUrl).toURL().openStream()) {
-            File tempFile = File.createTempFile("image_download_", ".png");
-            java.nio.file.Files.copy(in, tempFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            double[][] result = getHeatmapData(tempFile, fullImage);
-            tempFile.delete();
-            return result;
-        } catch (Exception e) {
-            throw new RuntimeException("Помилка при завантаженні зображення: " + imageUrl, e);
+        InferenceResult[] results = snapshot == context.patchSnapshot()
+                ? context.patchResults()
+                : snapshot.infer(context.patchFeatures(patchExtractor, snapshot.channelMode()), temperature);
+
+        float[] values = new float[results.length];
+        for (int i = 0; i < results.length; i++) {
+            values[i] = continuousHeatmap ? results[i].expectedLabel(temperature) : results[i].label();
         }
+        return HeatmapGrid.fromPatchValues(values, context.image().rows(), context.image().cols());
     }
 
-    public double[][] getHeatmapData(File imageFile, boolean isPatchModel) {
-        Mat image = ImageUtils.loadAndResizeImage(imageFile.getAbsolutePath());
-        List<FeatureLabelPair> patches = patchExtractor.extract(imageFile, -1, true);
-
-        int rows = image.rows();
-        int cols = image.cols();
-        double[][] heatmap = new double[rows][cols];
+    /**
+     * Чутливість передбачення моделі повного зображення до закриття кожного вікна 64x64,
+     * обчислена за один прохід з лінійних ваг (скорер будується й для версій з svm.scorer=opencv).
+     */
+    private HeatmapGrid occlusionSaliency(AnalysisImageContext context, ModelSnapshot snapshot) {
+        SvmScorer scorer = snapshot.scorer() != null
+                ? snapshot.scorer()
+                : LinearSvmScorer.of(snapshot.model(), snapshot.pca());
+        if (scorer == null) {
+            throw new ApiException("Карта чутливості доступна лише для лінійної моделі повного зображення",
+                    HttpStatus.UNPROCESSABLE_ENTITY);
+        }
 
-        int patchSize = 64;
-        int stepSize = 32;
+        Mat image = context.image(snapshot.channelMode());
+        Mat features = context.fullImageFeatures(snapshot.featureExtractor(), snapshot.channelMode());
+        int predicted = snapshot == context.fullImageSnapshot()
+                ? context.fullImageResult().label()
+                : scorer.predict(features)[0];
+        return OcclusionSaliencyMap.compute(image, features, snapshot.featureExtractor(), scorer, predicted);
+    }
 
-        int patchIndex = 0;
+    /**
+     * Ідентифікатор даних теплової карти для кешів: версія моделі та режим карти
+     * (щільний і неперервний для патч-моделі, карта чутливості для моделі повного зображення).
+     */
+    public String heatmapVersion(ModelSnapshot snapshot) {
+        if (snapshot.type() == SvmModelType.FULL_IMAGE) {
+            return snapshot.version() + "-occlusion";
+        }
+        HeatmapMode mode = heatmapMode(snapshot);
+        String version = mode == HeatmapMode.GRID ? snapshot.version() : snapshot.version() + "-" + mode.key();
+        return continuousHeatmap ? version + "-soft" + temperature : version;
+    }
 
-        for (int y = 0; y <= rows - patchSize; y += stepSize) {
-            for (int x = 0; x <= cols - patchSize; x += stepSize) {
-                if (patchIndex >= patches.size()) {
-                    continue;
-                }
+    // Щільна карта можлива лише для лінійної патч-моделі на сирих пікселях патча
+    private HeatmapMode heatmapMode(ModelSnapshot snapshot) {
+        HeatmapMode mode = HeatmapMode.fromKey(heatmapMode);
+        if (mode == HeatmapMode.DENSE && snapshot.type() == SvmModelType.PATCH && snapshot.scorer() != null) {
+            return HeatmapMode.DENSE;
+        }
+        return HeatmapMode.GRID;
+    }
 
-                FeatureLabelPair patch = patches.get(patchIndex++);
-                float prediction = isPatchModel ?
-                        patchModel.predict(patch.features()) :
-                        fullImageModel.predict(patch.features());
-
-                for (int dy = 0; dy < patchSize; dy++) {
-                    for (int dx = 0; dx < patchSize; dx++) {
-                        int yy = y + dy;
-                        int xx = x + dx;
-                        if (yy < rows && xx < cols) {
-                            heatmap[yy][xx] = prediction;
-                        }
-                    }
-                }
-            }
+    /**
+     * Класифікує всі патчі одним множенням матриці патчів контексту на ваги лінійної моделі;
+     * результат кешується в контексті для голосування, гістограми патологій і теплової карти.
+     */
+    private int[] patchPredictions(AnalysisImageContext context) {
+        if (context.patchPredictions() == null) {
+            ModelSnapshot snapshot = modelRegistry.active(SvmModelType.PATCH);
+            Mat samples = context.patchFeatures(patchExtractor, snapshot.channelMode());
+            context.patchResults(samples.rows() == 0 ? new InferenceResult[0] : snapshot.infer(samples, temperature));
+            context.patchSnapshot(snapshot);
         }
+        return context.patchPredictions();
+    }
 
-        return heatmap;
+    private Map<Integer, Integer> countPredictions(int[] predictions) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int prediction : predictions) {
+            counts.merge(prediction, 1, Integer::sum);
+        }
+        return counts;
     }
 
     public SVM getModel(boolean isPatchModel) {
-        return isPatchModel ? patchModel : fullImageModel;
+        return modelRegistry.active(SvmModelType.of(isPatchModel)).model();
+    }
+
+    public ModelSnapshot getActiveSnapshot(boolean isPatchModel) {
+        return modelRegistry.active(SvmModelType.of(isPatchModel));
     }
 }
\ No newline at end of file
@@ -0,0 +1,353 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.opencv.opencv_ml.SVM;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import ua.nure.holovashenko.medvisionspring.exception.ApiException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Реєстр версій SVM-моделей. Активна версія кожного типу зберігається за атомарним
+ * посиланням, тож нова версія підміняється без блокування запитів, що вже виконуються.
+ * <p>
+ * Версії зберігаються у svm-models/versions/{type}/{version}.xml разом з метаданими
+ * {version}.json, а файл ACTIVE містить активну версію для наступного запуску.
+ * Для лінійних моделей поруч з XML зберігається бінарний файл ваг {@link LinearModelFile},
+ * з якого модель завантажується без розбору XML.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SvmModelRegistry {
+
+    public static final String MODEL_DIR = "svm-models";
+    static final String LEGACY_VERSION = "legacy";
+
+    private static final String VERSIONS_DIR = MODEL_DIR + "/versions";
+    private static final String ACTIVE_FILE = "ACTIVE";
+    private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmssSSS");
+
+    private final MetricsCalculator metricsCalculator;
+
+    @Value("${svm.scorer.full-image:vector}")
+    private String fullImageScorer;
+
+    @Value("${svm.scorer.patch:gemm}")
+    private String patchScorer;
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    private final Map<SvmModelType, AtomicReference<ModelSnapshot>> activeSnapshots = new EnumMap<>(SvmModelType.class);
+    private final Map<SvmModelType, Map<String, ModelSnapshot>> loadedSnapshots = new EnumMap<>(SvmModelType.class);
+    private final Map<SvmModelType, Deque<String>> activationHistory = new EnumMap<>(SvmModelType.class);
+
+    {
+        for (SvmModelType type : SvmModelType.values()) {
+            activeSnapshots.put(type, new AtomicReference<>());
+            loadedSnapshots.put(type, new ConcurrentHashMap<>());
+            activationHistory.put(type, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Поточна активна версія моделі. Викликач має один раз отримати знімок
+     * і використовувати його до кінця обробки запиту.
+     */
+    public ModelSnapshot active(SvmModelType type) {
+        return activeSnapshots.get(type).get();
+    }
+
+    public void loadActiveModels() {
+        for (SvmModelType type : SvmModelType.values()) {
+            ModelSnapshot snapshot = null;
+            String version = readActiveVersion(type);
+
+            if (version != null) {
+                try {
+                    snapshot = loadSnapshot(type, version);
+                } catch (Exception e) {
+                    log.warn("Active {} model version {} could not be loaded, falling back to {}", type, version, type.modelPath(), e);
+                }
+            }
+
+            if (snapshot == null) {
+                snapshot = loadSnapshot(type, LEGACY_VERSION);
+            }
+
+            activeSnapshots.get(type).set(snapshot);
+            log.info("{} SVM model version {} is active", type, snapshot.version());
+        }
+    }
+
+    /**
+     * Зберігає щойно натреновану модель як нову версію та активує її.
+     */
+    public synchronized ModelSnapshot register(SvmModelType type, SVM model, ModelMetrics metrics,
+                                               Map<String, Integer> labelMap, ChannelMode channelMode,
+                                               FeatureType featureType, PcaProjection pca) {
+        String version = "v" + LocalDateTime.now().format(VERSION_FORMAT);
+        ModelMetadata metadata = new ModelMetadata(version, LocalDateTime.now(), Map.copyOf(labelMap), metrics,
+                featureType, pca != null ? pca.components() : null, channelMode);
+
+        LinearSvmScorer linear = LinearSvmScorer.of(model, pca);
+        Path modelPath = versionsDirectory(type).resolve(version + ".xml");
+        try {
+            Files.createDirectories(modelPath.getParent());
+            model.save(modelPath.toString());
+            if (pca != null) {
+                pca.write(modelPath.resolveSibling(version + ".pca"));
+            }
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(modelPath.resolveSibling(version + ".json").toFile(), metadata);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to persist " + type + " model version " + version, e);
+        }
+        writeBinary(type, linear, binaryPath(modelPath));
+
+        ModelSnapshot snapshot = new ModelSnapshot(type, ModelSnapshot.loaded(model), metadata, pca,
+                createScorer(type, linear));
+        loadedSnapshots.get(type).put(version, snapshot);
+        swap(snapshot, true);
+        return snapshot;
+    }
+
+    public synchronized ModelSnapshot activate(SvmModelType type, String version) {
+        ModelSnapshot snapshot = loadSnapshot(type, version);
+        swap(snapshot, true);
+        return snapshot;
+    }
+
+    public synchronized ModelSnapshot rollback(SvmModelType type) {
+        Deque<String> history = activationHistory.get(type);
+        if (history.isEmpty()) {
+            throw new ApiException("Немає попередньої версії моделі для відкату", HttpStatus.CONFLICT);
+        }
+
+        ModelSnapshot snapshot = loadSnapshot(type, history.pop());
+        swap(snapshot, false);
+        return snapshot;
+    }
+
+    public List<ModelVersionInfo> listVersions(SvmModelType type) {
+        ModelSnapshot active = active(type);
+        List<ModelVersionInfo> versions = new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(versionsDirectory(type))) {
+            files.filter(path -> path.getFileName().toString().endsWith(".json"))
+                    .map(this::readMetadata)
+                    .filter(Objects::nonNull)
+                    .forEach(metadata -> versions.add(toInfo(type, metadata, active)));
+        } catch (IOException e) {
+            log.debug("No stored versions for {} model", type);
+        }
+
+        if (active != null && LEGACY_VERSION.equals(active.version())) {
+            versions.add(toInfo(type, active.metadata(), active));
+        }
+
+        versions.sort(Comparator.comparing(ModelVersionInfo::version).reversed());
+        return versions;
+    }
+
+    private void swap(ModelSnapshot next, boolean recordHistory) {
+        ModelSnapshot previous = activeSnapshots.get(next.type()).getAndSet(next);
+        if (recordHistory && previous != null && !previous.version().equals(next.version())) {
+            activationHistory.get(next.type()).push(previous.version());
+        }
+
+        writeActiveVersion(next.type(), next.version());
+        log.info("{} SVM model switched to version {}", next.type(), next.version());
+    }
+
+    private ModelSnapshot loadSnapshot(SvmModelType type, String version) {
+        return loadedSnapshots.get(type).computeIfAbsent(version, v -> LEGACY_VERSION.equals(v)
+                ? loadLegacySnapshot(type)
+                : loadStoredSnapshot(type, v));
+    }
+
+    private ModelSnapshot loadStoredSnapshot(SvmModelType type, String version) {
+        Path directory = versionsDirectory(type);
+        Path modelPath = directory.resolve(version + ".xml");
+        if (!Files.exists(modelPath)) {
+            throw new ApiException("Версію моделі не знайдено: " + version, HttpStatus.NOT_FOUND);
+        }
+
+        ModelMetadata metadata = readMetadata(directory.resolve(version + ".json"));
+        if (metadata == null) {
+            metadata = new ModelMetadata(version, null, Map.of(), metricsCalculator.loadMetricsFromAzure(type.metricsBlobName()), null, null, null);
+        }
+
+        PcaProjection pca = null;
+        if (metadata.pcaComponents() != null) {
+            try {
+                pca = PcaProjection.read(directory.resolve(version + ".pca"));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read PCA projection of " + type + " model version " + version, e);
+            }
+        }
+
+        return loadModel(type, modelPath, metadata, pca);
+    }
+
+    private ModelSnapshot loadLegacySnapshot(SvmModelType type) {
+        ModelMetrics metrics = metricsCalculator.loadMetricsFromAzure(type.metricsBlobName());
+        ModelMetadata metadata = new ModelMetadata(LEGACY_VERSION, null, Map.of(), metrics, null, null, null);
+
+        try {
+            return loadModel(type, Paths.get(type.modelPath()), metadata, null);
+        } catch (Exception e) {
+            log.warn("{} SVM model could not be loaded. New model created.", type);
+            return new ModelSnapshot(type, ModelSnapshot.loaded(SVM.create()), metadata, null, null);
+        }
+    }
+
+    /**
+     * Якщо бінарний файл ваг не старіший за XML, скорер будується з відображеного в пам'ять
+     * файлу, а XML розбирається лише тоді, коли знадобиться сама модель OpenCV. Інакше XML
+     * завантажується одразу, і для лінійної моделі поруч записується бінарний файл для наступних запусків.
+     */
+    private ModelSnapshot loadModel(SvmModelType type, Path modelPath, ModelMetadata metadata, PcaProjection pca) {
+        Path binaryPath = binaryPath(modelPath);
+        if (engine(type) != ScoringEngine.OPENCV && isUpToDate(binaryPath, modelPath)) {
+            try {
+                LinearSvmScorer linear = LinearModelFile.read(binaryPath);
+                log.info("{} SVM model version {} loaded from {}", type, metadata.version(), binaryPath);
+                return new ModelSnapshot(type, ModelSnapshot.lazy(() -> loadXml(type, modelPath)), metadata, pca,
+                        createScorer(type, linear));
+            } catch (IOException e) {
+                log.warn("{} model binary {} is not readable, loading {}", type, binaryPath, modelPath, e);
+            }
+        }
+
+        SVM model = SVM.load(modelPath.toString());
+        log.info("{} SVM model version {} loaded from {}", type, metadata.version(), modelPath);
+        LinearSvmScorer linear = LinearSvmScorer.of(model, pca);
+        writeBinary(type, linear, binaryPath);
+        return new ModelSnapshot(type, ModelSnapshot.loaded(model), metadata, pca, createScorer(type, linear));
+    }
+
+    private static SVM loadXml(SvmModelType type, Path modelPath) {
+        SVM model = SVM.load(modelPath.toString());
+        log.info("{} OpenCV SVM model loaded on demand from {}", type, modelPath);
+        return model;
+    }
+
+    private void writeBinary(SvmModelType type, LinearSvmScorer linear, Path binaryPath) {
+        if (linear == null) {
+            return;
+        }
+        try {
+            LinearModelFile.write(binaryPath, linear);
+            log.info("{} model weights converted to {}", type, binaryPath);
+        } catch (IOException e) {
+            log.warn("Cannot write {} model binary {}", type, binaryPath, e);
+        }
+    }
+
+    static Path binaryPath(Path modelPath) {
+        String name = modelPath.getFileName().toString();
+        String baseName = name.endsWith(".xml") ? name.substring(0, name.length() - 4) : name;
+        return modelPath.resolveSibling(baseName + LinearModelFile.EXTENSION);
+    }
+
+    private static boolean isUpToDate(Path binaryPath, Path modelPath) {
+        try {
+            return Files.exists(binaryPath) && Files.exists(modelPath)
+                    && Files.getLastModifiedTime(binaryPath).compareTo(Files.getLastModifiedTime(modelPath)) >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private ScoringEngine engine(SvmModelType type) {
+        return ScoringEngine.fromKey(type == SvmModelType.PATCH ? patchScorer : fullImageScorer);
+    }
+
+    /**
+     * Скорер, налаштований для типу моделі (svm.scorer.*). Якщо обраний спосіб недоступний
+     * (нелінійна модель, немає модуля Vector API), використовується найближчий доступний.
+     */
+    SvmScorer createScorer(SvmModelType type, LinearSvmScorer linear) {
+        ScoringEngine engine = engine(type);
+        if (engine == ScoringEngine.OPENCV) {
+            return null;
+        }
+        if (linear == null || engine == ScoringEngine.GEMM) {
+            return linear;
+        }
+
+        if (!isVectorApiAvailable()) {
+            log.warn("{} model: jdk.incubator.vector module is not enabled, using GEMM scorer", type);
+            return linear;
+        }
+        try {
+            return VectorSvmScorer.of(linear);
+        } catch (LinkageError e) {
+            log.warn("{} model: Vector API cannot be loaded, using GEMM scorer", type, e);
+            return linear;
+        }
+    }
+
+    // Перевірка не ініціалізує VectorSvmScorer: без модуля це кинуло б NoClassDefFoundError
+    static boolean isVectorApiAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    private ModelMetadata readMetadata(Path path) {
+        try {
+            return objectMapper.readValue(path.toFile(), ModelMetadata.class);
+        } catch (IOException e) {
+            log.warn("Cannot read model metadata {}", path, e);
+            return null;
+        }
+    }
+
+    private String readActiveVersion(SvmModelType type) {
+        Path path = versionsDirectory(type).resolve(ACTIVE_FILE);
+        try {
+            return Files.exists(path) ? Files.readString(path, StandardCharsets.UTF_8).trim() : null;
+        } catch (IOException e) {
+            log.warn("Cannot read active {} model version", type, e);
+            return null;
+        }
+    }
+
+    private void writeActiveVersion(SvmModelType type, String version) {
+        try {
+            Path directory = versionsDirectory(type);
+            Files.createDirectories(directory);
+            Files.writeString(directory.resolve(ACTIVE_FILE), version, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.warn("Cannot persist active {} model version {}", type, version, e);
+        }
+    }
+
+    private ModelVersionInfo toInfo(SvmModelType type, ModelMetadata metadata, ModelSnapshot active) {
+        return new ModelVersionInfo(
+                type,
+                metadata.version(),
+                metadata.createdAt(),
+                metadata.metrics() != null ? metadata.metrics().accuracy() : null,
+                metadata.inputChannels(),
+                metadata.featureExtractor().type(),
+                active != null && active.version().equals(metadata.version())
+        );
+    }
+
+    private static Path versionsDirectory(SvmModelType type) {
+        return Paths.get(VERSIONS_DIR, type.key());
+    }
+}
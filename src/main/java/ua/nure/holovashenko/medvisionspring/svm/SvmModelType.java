@@ -0,0 +1,37 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+public enum SvmModelType {
+    FULL_IMAGE("full"),
+    PATCH("patch");
+
+    private final String key;
+
+    SvmModelType(String key) {
+        this.key = key;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public String modelPath() {
+        return SvmModelRegistry.MODEL_DIR + "/svm_" + key + "_model.xml";
+    }
+
+    public String metricsBlobName() {
+        return SvmModelRegistry.MODEL_DIR + "/" + key + "_metrics.json";
+    }
+
+    public static SvmModelType of(boolean isPatchModel) {
+        return isPatchModel ? PATCH : FULL_IMAGE;
+    }
+
+    public static SvmModelType fromKey(String key) {
+        for (SvmModelType type : values()) {
+            if (type.key.equalsIgnoreCase(key)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown SVM model type: " + key);
+    }
+}
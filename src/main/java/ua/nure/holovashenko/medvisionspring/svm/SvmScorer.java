@@ -0,0 +1,84 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.util.Arrays;
+
+/**
+ * Обчислення попарних функцій рішення лінійної C-SVC моделі поза SVM::predict.
+ * Порядок пар і голосування збігаються з OpenCV: для класів a < b у порядку class_labels
+ * додатне значення віддає голос класу a, інакше b; за рівності перемагає перший клас.
+ */
+public interface SvmScorer {
+
+    int[] classLabels();
+
+    int featureLength();
+
+    /**
+     * Ваги функцій рішення у просторі вихідних ознак (пари x featureLength).
+     */
+    float[][] weightRows();
+
+    float[] rho();
+
+    /**
+     * Значення w·x - rho для кожної пари класів (samples.rows() x пари).
+     */
+    float[][] decisionValues(Mat samples);
+
+    /**
+     * Мітки класів для всіх рядків матриці ознак.
+     */
+    default int[] predict(Mat samples) {
+        checkFeatureLength(samples);
+        return vote(decisionValues(samples), classLabels());
+    }
+
+    /**
+     * Мітки разом з балами класів і впевненістю з одного обчислення функцій рішення.
+     */
+    default InferenceResult[] infer(Mat samples, float temperature) {
+        checkFeatureLength(samples);
+        int[] classLabels = classLabels();
+        float[][] decisions = decisionValues(samples);
+        int[] labels = vote(decisions, classLabels);
+
+        InferenceResult[] results = new InferenceResult[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            results[i] = InferenceResult.fromDecisions(labels[i], decisions[i], classLabels, temperature);
+        }
+        return results;
+    }
+
+    private void checkFeatureLength(Mat samples) {
+        if (samples.cols() != featureLength()) {
+            throw new IllegalArgumentException("Модель очікує " + featureLength() + " ознак, отримано " + samples.cols());
+        }
+    }
+
+    static int[] vote(float[][] decisions, int[] classLabels) {
+        int classCount = classLabels.length;
+        int[] votes = new int[classCount];
+        int[] labels = new int[decisions.length];
+
+        for (int i = 0; i < decisions.length; i++) {
+            Arrays.fill(votes, 0);
+            int pair = 0;
+            for (int a = 0; a < classCount; a++) {
+                for (int b = a + 1; b < classCount; b++, pair++) {
+                    votes[decisions[i][pair] > 0 ? a : b]++;
+                }
+            }
+
+            int winner = 0;
+            for (int c = 1; c < classCount; c++) {
+                if (votes[c] > votes[winner]) {
+                    winner = c;
+                }
+            }
+            labels[i] = classLabels[winner];
+        }
+        return labels;
+    }
+}
@@ -10,10 +10,17 @@ import org.springframework.http.HttpStatus;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import ua.nure.holovashenko.medvisionspring.exception.ApiException;
+import ua.nure.holovashenko.medvisionspring.util.hash.ContentHashUtil;
 
 import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 @Slf4j
 @Service
@@ -26,6 +33,13 @@ public class SvmService {
     private final MetricsCalculator metricsCalculator;
     private final HeatmapGenerator heatmapGenerator;
     private final ImageUtils imageUtils;
+    private final SvmModelRegistry modelRegistry;
+    private final InferenceExecutor inferenceExecutor;
+    private final HeatmapCache heatmapCache;
+    private final DecodedImageCache decodedImageCache;
+
+    // Завершується, коли фонове завантаження моделей закінчилось (успішно чи з помилкою)
+    private final CompletableFuture<Void> modelsLoaded = new CompletableFuture<>();
 
     public static final Map<Integer, DiagnosisInfo> CLASS_LABELS = Map.of(
             0, new DiagnosisInfo(
@@ -60,10 +74,24 @@ public class SvmService {
     @EventListener(ApplicationReadyEvent.class)
     public void preloadModelsInBackground() {
         log.info("Starting async preload of SVM models...");
-        modelManager.loadModels();
+        try {
+            modelManager.loadModels();
+        } catch (RuntimeException e) {
+            modelsLoaded.completeExceptionally(e);
+            throw e;
+        }
+        modelsLoaded.complete(null);
         log.info("SVM models preloaded successfully.");
     }
 
+    /**
+     * Виконує дію після завершення фонового завантаження моделей, зокрема невдалого
+     * (тоді інференс і далі відповідатиме 503); якщо завантаження вже завершилось — одразу.
+     */
+    public void whenModelsLoaded(Runnable action) {
+        modelsLoaded.whenComplete((ignored, error) -> action.run());
+    }
+
     public void trainFromDirectory(String datasetPath, boolean isPatchModel) {
         Dataset dataset = datasetLoader.loadDataset(datasetPath);
         if (isPatchModel) {
@@ -73,9 +101,31 @@ public class SvmService {
         }
     }
 
+    public TrainingProgress getTrainingProgress() {
+        return modelManager.getTrainingProgress();
+    }
+
+    public AnalysisImageContext createContext(File imageFile) {
+        return AnalysisImageContext.fromFile(imageFile);
+    }
+
     public int classify(File imageFile, boolean isPatchModel) {
         ensureModelsReady();
-        return modelManager.classify(imageFile, isPatchModel);
+        return inferenceExecutor.execute("classify", () -> modelManager.classify(imageFile, isPatchModel));
+    }
+
+    public int classify(AnalysisImageContext context, boolean isPatchModel) {
+        ensureModelsReady();
+        return inferenceExecutor.execute("classify", () -> modelManager.classify(context, isPatchModel));
+    }
+
+    /**
+     * Класифікація з балами класів і впевненістю; результат кешується в контексті,
+     * тож повторний виклик classify/infer для того самого контексту не запускає інференс.
+     */
+    public InferenceResult infer(AnalysisImageContext context, boolean isPatchModel) {
+        ensureModelsReady();
+        return inferenceExecutor.execute("classify", () -> modelManager.infer(context, isPatchModel));
     }
 
     public float evaluate(List<File> images, List<Integer> labels, boolean isPatchModel) {
@@ -84,19 +134,118 @@ public class SvmService {
     }
 
     public Map<Integer, Integer> detectPathologyCounts(File imageFile) {
-        return modelManager.detectPatchPathologies(imageFile);
+        ensureModelsReady();
+        return inferenceExecutor.execute("pathologies", () -> modelManager.detectPatchPathologies(imageFile));
+    }
+
+    public Map<Integer, Integer> detectPathologyCounts(AnalysisImageContext context) {
+        ensureModelsReady();
+        return inferenceExecutor.execute("pathologies", () -> modelManager.detectPatchPathologies(context));
     }
 
     public Mat generateHeatmap(File imageFile, boolean isPatchModel) {
+        try (AnalysisImageContext context = createContext(imageFile)) {
+            return generateHeatmap(context, isPatchModel);
+        }
+    }
+
+    public Mat generateHeatmap(AnalysisImageContext context, boolean isPatchModel) {
+        ensureModelsReady();
+        return inferenceExecutor.execute("heatmap", () -> {
+            HeatmapGrid heatmapData = modelManager.getHeatmapData(context, isPatchModel);
+            return heatmapGenerator.generateHeatmap(context.image(), heatmapData);
+        });
+    }
+
+    /**
+     * Будує теплову карту і зберігає її сітку в кеші під хешем вмісту зображення,
+     * щоб подальші порівняння не повторювали інференс.
+     */
+    public Mat generateHeatmap(AnalysisImageContext context, boolean isPatchModel, String contentHash) {
+        if (contentHash == null) {
+            return generateHeatmap(context, isPatchModel);
+        }
+
+        ensureModelsReady();
+        return inferenceExecutor.execute("heatmap", () -> {
+            ModelSnapshot snapshot = modelManager.getActiveSnapshot(isPatchModel);
+            String heatmapVersion = modelManager.heatmapVersion(snapshot);
+            HeatmapGrid heatmapData = heatmapCache.get(snapshot.type(), heatmapVersion, contentHash)
+                    .orElseGet(() -> {
+                        HeatmapGrid computed = modelManager.getHeatmapData(context, snapshot);
+                        heatmapCache.put(snapshot.type(), heatmapVersion, contentHash, computed);
+                        return computed;
+                    });
+            return heatmapGenerator.generateHeatmap(context.image(), heatmapData);
+        });
+    }
+
+    /**
+     * Дані теплової карти для зображення зі сховища. Спершу перевіряється кеш за хешем вмісту
+     * і поточною версією моделі; при промаху зображення береться з кешу декодованих зображень
+     * (або завантажується в потоці викликача, щоб мережеве очікування не займало пул інференсу).
+     *
+     * @param contentHash SHA-256 вмісту зображення (null, якщо невідомий — тоді обчислюється після завантаження)
+     */
+    public HeatmapGrid getHeatmapData(String imageUrl, String contentHash, boolean isPatchModel) {
         ensureModelsReady();
-        Mat inputImage = ImageUtils.loadAndResizeImage(imageFile.getAbsolutePath());
-        double[][] heatmapData = modelManager.getHeatmapData(imageFile, isPatchModel);
-        return heatmapGenerator.generateHeatmap(inputImage, heatmapData);
+        ModelSnapshot snapshot = modelManager.getActiveSnapshot(isPatchModel);
+
+        if (contentHash == null) {
+            // Старі записи без хешу: хеш рахується після завантаження, кеш усе одно дозволяє пропустити інференс
+            byte[] imageBytes = downloadImage(imageUrl);
+            String hash = ContentHashUtil.sha256(imageBytes);
+            Optional<HeatmapGrid> cached = heatmapCache.get(snapshot.type(), modelManager.heatmapVersion(snapshot), hash);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+            return computeHeatmapData(snapshot, hash, () -> AnalysisImageContext.fromBytes(imageBytes));
+        }
+
+        Optional<HeatmapGrid> cached = heatmapCache.get(snapshot.type(), modelManager.heatmapVersion(snapshot), contentHash);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        Mat decoded = decodedImageCache.get(imageUrl);
+        try {
+            return computeHeatmapData(snapshot, contentHash, () -> AnalysisImageContext.fromDecoded(decoded));
+        } finally {
+            decoded.release();
+        }
     }
 
-    public void saveModel(String path, boolean isPatchModel) {
+    /**
+     * Декодоване зображення зі сховища (копія з кешу декодованих зображень).
+     */
+    public Mat loadStoredImage(String imageUrl) {
+        return decodedImageCache.get(imageUrl);
+    }
+
+    /**
+     * Звільняє декодоване зображення, якщо воно видалене або замінене у сховищі.
+     */
+    public void evictStoredImage(String imageUrl) {
+        decodedImageCache.invalidate(imageUrl);
+    }
+
+    private HeatmapGrid computeHeatmapData(ModelSnapshot snapshot, String contentHash,
+                                           Supplier<AnalysisImageContext> contextFactory) {
+        HeatmapGrid grid = inferenceExecutor.execute("heatmap", () -> {
+            try (AnalysisImageContext context = contextFactory.get()) {
+                return modelManager.getHeatmapData(context, snapshot);
+            }
+        });
+        heatmapCache.put(snapshot.type(), modelManager.heatmapVersion(snapshot), contentHash, grid);
+        return grid;
+    }
+
+    /**
+     * Версія даних теплової карти активної моделі (версія моделі та режим карти).
+     */
+    public String getHeatmapVersion(boolean isPatchModel) {
         ensureModelsReady();
-        modelManager.saveModel(path, isPatchModel);
+        return modelManager.heatmapVersion(modelManager.getActiveSnapshot(isPatchModel));
     }
 
     public byte[] matToBytes(Mat mat, String format) {
@@ -111,6 +260,55 @@ public class SvmService {
         return metricsCalculator.loadMetricsFromAzure(path);
     }
 
+    /**
+     * Метрики тієї версії моделі, якою було класифіковано зображення контексту.
+     */
+    public ModelMetrics loadMetrics(AnalysisImageContext context) {
+        ModelSnapshot snapshot = context.classifiedBy();
+        if (snapshot != null && snapshot.metrics() != null) {
+            return snapshot.metrics();
+        }
+        return loadMetrics(SvmModelType.FULL_IMAGE.metricsBlobName());
+    }
+
+    public List<ModelVersionInfo> listModelVersions() {
+        List<ModelVersionInfo> versions = new ArrayList<>();
+        for (SvmModelType type : SvmModelType.values()) {
+            versions.addAll(modelRegistry.listVersions(type));
+        }
+        return versions;
+    }
+
+    public ModelVersionInfo activateModelVersion(String type, String version) {
+        ModelSnapshot snapshot = modelRegistry.activate(SvmModelType.fromKey(type), version);
+        return describe(snapshot);
+    }
+
+    public ModelVersionInfo rollbackModel(String type) {
+        ModelSnapshot snapshot = modelRegistry.rollback(SvmModelType.fromKey(type));
+        return describe(snapshot);
+    }
+
+    private ModelVersionInfo describe(ModelSnapshot snapshot) {
+        return new ModelVersionInfo(
+                snapshot.type(),
+                snapshot.version(),
+                snapshot.metadata().createdAt(),
+                snapshot.metrics() != null ? snapshot.metrics().accuracy() : null,
+                snapshot.channelMode(),
+                snapshot.featureExtractor().type(),
+                true
+        );
+    }
+
+    private static byte[] downloadImage(String imageUrl) {
+        try (InputStream in = URI.create(imageUrl).toURL().openStream()) {
+            return in.readAllBytes();
+        } catch (Exception e) {
+            throw new RuntimeException("Помилка при завантаженні зображення: " + imageUrl, e);
+        }
+    }
+
     private void ensureModelsReady() {
         if (!modelManager.areModelsReady()) {
             throw new ApiException("SVM models are still loading. Please try again later.", HttpStatus.SERVICE_UNAVAILABLE);
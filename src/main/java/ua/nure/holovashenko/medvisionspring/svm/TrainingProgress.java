@@ -0,0 +1,3 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+public record TrainingProgress(String stage, int processedImages, int totalImages, boolean running) {}
@@ -0,0 +1,95 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Лінійний скорер на Java Vector API: ваги кожної пари класів зберігаються в купі як float[],
+ * а w·x обчислюється SIMD-інструкціями (FMA по ширині регістра процесора).
+ * Для малих векторів ознак це уникає накладних витрат JNI-викликів у OpenCV.
+ * <p>
+ * Потребує модуля jdk.incubator.vector (--add-modules jdk.incubator.vector). Без нього вже
+ * ініціалізація класу кидає NoClassDefFoundError, тому наявність модуля перевіряє
+ * {@link SvmModelRegistry}, не звертаючись до цього класу.
+ */
+final class VectorSvmScorer implements SvmScorer {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private final float[][] weights;
+    private final float[] rho;
+    private final int[] classLabels;
+
+    private VectorSvmScorer(float[][] weights, float[] rho, int[] classLabels) {
+        this.weights = weights;
+        this.rho = rho;
+        this.classLabels = classLabels;
+    }
+
+    /**
+     * Копіює ваги (з уже згорнутою PCA) лінійного скорера в купу.
+     */
+    static VectorSvmScorer of(LinearSvmScorer linear) {
+        return new VectorSvmScorer(linear.weightRows(), linear.rho(), linear.classLabels());
+    }
+
+    @Override
+    public int[] classLabels() {
+        return classLabels.clone();
+    }
+
+    @Override
+    public int featureLength() {
+        return weights.length > 0 ? weights[0].length : 0;
+    }
+
+    @Override
+    public float[][] weightRows() {
+        float[][] copy = new float[weights.length][];
+        for (int pair = 0; pair < weights.length; pair++) {
+            copy[pair] = weights[pair].clone();
+        }
+        return copy;
+    }
+
+    @Override
+    public float[] rho() {
+        return rho.clone();
+    }
+
+    @Override
+    public float[][] decisionValues(Mat samples) {
+        float[][] values = new float[samples.rows()][rho.length];
+        float[] row = new float[samples.cols()];
+
+        Mat source = samples.isContinuous() ? samples : samples.clone();
+        FloatPointer data = new FloatPointer(source.data());
+        for (int i = 0; i < values.length; i++) {
+            data.position((long) i * row.length).get(row);
+            for (int pair = 0; pair < rho.length; pair++) {
+                values[i][pair] = dot(weights[pair], row) - rho[pair];
+            }
+        }
+        return values;
+    }
+
+    static float dot(float[] a, float[] b) {
+        int length = a.length;
+        int bound = SPECIES.loopBound(length);
+
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            sum = FloatVector.fromArray(SPECIES, a, i).fma(FloatVector.fromArray(SPECIES, b, i), sum);
+        }
+
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[i] * b[i];
+        }
+        return result;
+    }
+}
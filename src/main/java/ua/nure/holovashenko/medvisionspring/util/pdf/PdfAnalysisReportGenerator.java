@@ -8,18 +8,24 @@ import ua.nure.holovashenko.medvisionspring.entity.ImageAnalysis;
 import java.io.*;
 import java.time.format.DateTimeFormatter;
 
-import static ua.nure.holovashenko.medvisionspring.util.pdf.PdfComparisonReportUtil.loadWatermarkBytes;
-
 public class PdfAnalysisReportGenerator {
 
     public static byte[] generateAnalysisPdf(ImageAnalysis analysis) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        Document document = new Document(PageSize.A4, 50, 50, 60, 50);
-        PdfWriter writer = PdfWriter.getInstance(document, baos);
+        writeAnalysisPdf(analysis, baos);
+        return baos.toByteArray();
+    }
 
-        byte[] watermarkBytes = loadWatermarkBytes();
+    /**
+     * Записує звіт безпосередньо в потік (наприклад, у відповідь сервлета) по мірі
+     * формування сторінок, не тримаючи весь документ у пам'яті. Потік не закривається.
+     */
+    public static void writeAnalysisPdf(ImageAnalysis analysis, OutputStream out) throws IOException {
+        Document document = new Document(PageSize.A4, 50, 50, 60, 50);
+        PdfWriter writer = PdfWriter.getInstance(document, out);
+        writer.setCloseStream(false);
 
-        writer.setPageEvent(new WatermarkPageEvent(watermarkBytes));
+        writer.setPageEvent(WatermarkPageEvent.standard());
         writer.setPageEvent(new FooterPageEvent());
         document.open();
 
@@ -29,7 +35,6 @@ public class PdfAnalysisReportGenerator {
         addHeatmap(document, analysis);
 
         document.close();
-        return baos.toByteArray();
     }
 
     private static void addTitle(Document document) throws DocumentException {
@@ -63,6 +68,11 @@ public class PdfAnalysisReportGenerator {
         table.addCell(PdfTableBuilder.headerCell("Повнота виявлення патологій"));
         table.addCell(PdfTableBuilder.textCell(String.format("%.2f", analysis.getAnalysisRecall())));
 
+        if (analysis.getAnalysisConfidence() != null) {
+            table.addCell(PdfTableBuilder.headerCell("Впевненість моделі в діагнозі"));
+            table.addCell(PdfTableBuilder.textCell(String.format("%.2f", analysis.getAnalysisConfidence())));
+        }
+
         document.add(table);
     }
 
@@ -9,6 +9,7 @@ import ua.nure.holovashenko.medvisionspring.dto.ComparisonReport;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -16,13 +17,21 @@ public class PdfComparisonReportUtil {
 
     public static byte[] generateComparisonPdf(ComparisonReport report) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeComparisonPdf(report, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Записує звіт порівняння безпосередньо в потік, не закриваючи його.
+     */
+    public static void writeComparisonPdf(ComparisonReport report, OutputStream out) {
         Document document = new Document(PageSize.A4, 36, 36, 54, 36);
 
         try {
             PdfWriter writer = PdfWriter.getInstance(document, out);
+            writer.setCloseStream(false);
 
-            byte[] watermarkBytes = loadWatermarkBytes();
-            writer.setPageEvent(new WatermarkPageEvent(watermarkBytes));
+            writer.setPageEvent(WatermarkPageEvent.standard());
             writer.setPageEvent(new FooterPageEvent());
 
             document.open();
@@ -38,15 +47,23 @@ public class PdfComparisonReportUtil {
         } finally {
             document.close();
         }
-
-        return out.toByteArray();
     }
 
+    private static volatile byte[] watermarkBytes;
+
+    /**
+     * Байти логотипу для водяного знаку; читаються з classpath один раз на JVM.
+     */
     static byte[] loadWatermarkBytes() throws IOException {
-        ClassPathResource logo = new ClassPathResource("static/medvision.png");
-        try (InputStream inputStream = logo.getInputStream()) {
-            return inputStream.readAllBytes();
+        byte[] bytes = watermarkBytes;
+        if (bytes == null) {
+            ClassPathResource logo = new ClassPathResource("static/medvision.png");
+            try (InputStream inputStream = logo.getInputStream()) {
+                bytes = inputStream.readAllBytes();
+            }
+            watermarkBytes = bytes;
         }
+        return bytes;
     }
 
     private static void addTitle(Document document) throws DocumentException {
@@ -4,56 +4,107 @@ import com.lowagie.text.BadElementException;
 import com.lowagie.text.Document;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.Image;
+import com.lowagie.text.Rectangle;
 import com.lowagie.text.pdf.*;
 
+import java.io.IOException;
+
 public class WatermarkPageEvent extends PdfPageEventHelper {
 
+    private static final float TILE_SIZE = 120;
+    private static final float TILE_GAP = 40;
+    private static final float OPACITY = 0.07f;
+
+    // Декодований логотип спільний для всіх звітів у межах JVM
+    private static volatile Image defaultImage;
+
     private final Image baseImage;
     private final float imageWidth;
     private final float imageHeight;
 
+    // Візерунок плиток будується один раз на документ і додається на кожну сторінку як посилання на XObject
+    private PdfTemplate pattern;
+    private Rectangle patternPageSize;
+
     public WatermarkPageEvent(byte[] imageBytes) throws BadElementException {
-        try {
-            this.baseImage = Image.getInstance(imageBytes);
-            this.baseImage.scaleToFit(120, 120);
-            this.imageWidth = this.baseImage.getScaledWidth();
-            this.imageHeight = this.baseImage.getScaledHeight();
-        } catch (Exception e) {
-            throw new RuntimeException("Помилка під час завантаження зображення водяного знаку", e);
+        this(decode(imageBytes));
+    }
+
+    private WatermarkPageEvent(Image baseImage) {
+        this.baseImage = baseImage;
+        this.imageWidth = baseImage.getScaledWidth();
+        this.imageHeight = baseImage.getScaledHeight();
+    }
+
+    /**
+     * Подія зі стандартним логотипом MedVision, декодованим один раз на JVM.
+     */
+    public static WatermarkPageEvent standard() throws IOException {
+        Image image = defaultImage;
+        if (image == null) {
+            synchronized (WatermarkPageEvent.class) {
+                image = defaultImage;
+                if (image == null) {
+                    image = decode(PdfComparisonReportUtil.loadWatermarkBytes());
+                    defaultImage = image;
+                }
+            }
         }
+        return new WatermarkPageEvent(image);
     }
 
     @Override
     public void onEndPage(PdfWriter writer, Document document) {
-        try {
-            PdfContentByte canvas = writer.getDirectContentUnder();
-            canvas.saveState();
+        Rectangle pageSize = document.getPageSize();
+        if (pattern == null || !sameSize(patternPageSize, pageSize)) {
+            pattern = buildPattern(writer, document);
+            patternPageSize = new Rectangle(pageSize);
+        }
 
-            PdfGState gState = new PdfGState();
-            gState.setFillOpacity(0.07f);
-            canvas.setGState(gState);
+        writer.getDirectContentUnder().addTemplate(pattern, 0, 0);
+    }
 
+    private PdfTemplate buildPattern(PdfWriter writer, Document document) {
+        try {
             float docWidth = document.getPageSize().getWidth();
             float docHeight = document.getPageSize().getHeight();
 
+            PdfTemplate template = writer.getDirectContentUnder().createTemplate(docWidth, docHeight);
+
+            PdfGState gState = new PdfGState();
+            gState.setFillOpacity(OPACITY);
+            template.setGState(gState);
+
             boolean isOffsetRow = false;
 
-            for (float y = document.bottom(); y < docHeight; y += imageHeight + 40) {
+            for (float y = document.bottom(); y < docHeight; y += imageHeight + TILE_GAP) {
                 float startX = document.left() + (isOffsetRow ? imageWidth / 2 : 0);
 
-                for (float x = startX; x < docWidth; x += imageWidth + 40) {
-                    Image image = Image.getInstance(baseImage);
-                    image.setAbsolutePosition(x, y);
-                    canvas.addImage(image);
+                for (float x = startX; x < docWidth; x += imageWidth + TILE_GAP) {
+                    template.addImage(baseImage, imageWidth, 0, 0, imageHeight, x, y);
                 }
 
                 isOffsetRow = !isOffsetRow;
             }
 
-            canvas.restoreState();
+            return template;
 
         } catch (DocumentException e) {
             throw new RuntimeException("Не вдалося додати водяний знак", e);
         }
     }
-}
\ No newline at end of file
+
+    private static boolean sameSize(Rectangle a, Rectangle b) {
+        return a != null && a.getWidth() == b.getWidth() && a.getHeight() == b.getHeight();
+    }
+
+    private static Image decode(byte[] imageBytes) {
+        try {
+            Image image = Image.getInstance(imageBytes);
+            image.scaleToFit(TILE_SIZE, TILE_SIZE);
+            return image;
+        } catch (Exception e) {
+            throw new RuntimeException("Помилка під час завантаження зображення водяного знаку", e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.UByteIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Перевіряє, що щільна карта на filter2D збігається з GEMM-скорером, застосованим до кожного патча окремо.
+ */
+class DensePatchHeatmapTest {
+
+    private static final int PATCH = ImagePatchExtractor.PATCH_SIZE;
+    private static final int STEP = ImagePatchExtractor.STEP_SIZE;
+
+    @Test
+    void windowDecisionsMatchGemmAtGridPositions() {
+        for (int channels : new int[]{1, 3}) {
+            Random random = new Random(channels);
+            Mat image = randomImage(random, 160, 192, channels);
+            LinearSvmScorer scorer = randomScorer(random, 3, ImagePatchExtractor.featureLength(channels));
+
+            ImagePatchExtractor extractor = new ImagePatchExtractor();
+            Mat patches = extractor.allocateFeatures(image);
+            extractor.extractInto(image, patches, 0);
+            float[][] expected = scorer.decisionValues(patches);
+
+            float[][] dense = DensePatchHeatmap.windowDecisions(image, scorer);
+            int windowCols = image.cols() - PATCH + 1;
+            int patchCols = ImagePatchExtractor.gridSize(image.cols());
+            for (int patch = 0; patch < expected.length; patch++) {
+                int y = patch / patchCols * STEP;
+                int x = patch % patchCols * STEP;
+                for (int pair = 0; pair < expected[patch].length; pair++) {
+                    float value = expected[patch][pair];
+                    assertEquals(value, dense[y * windowCols + x][pair], 1e-4 * Math.max(1, Math.abs(value)),
+                            channels + " channels, patch " + patch + ", pair " + pair);
+                }
+            }
+        }
+    }
+
+    @Test
+    void mapAveragesGemmLabelsOfAllCoveringWindows() {
+        Random random = new Random(11);
+        Mat image = randomImage(random, 96, 100, 1);
+        LinearSvmScorer scorer = randomScorer(random, 3, ImagePatchExtractor.featureLength(1));
+
+        int windowRows = image.rows() - PATCH + 1;
+        int windowCols = image.cols() - PATCH + 1;
+        int[] labels = scorer.predict(allWindows(image, windowRows, windowCols));
+
+        HeatmapGrid grid = DensePatchHeatmap.compute(image, scorer, false, 1f);
+
+        assertEquals(image.rows(), grid.rows());
+        assertEquals(image.cols(), grid.cols());
+        for (int y = 0; y < image.rows(); y++) {
+            for (int x = 0; x < image.cols(); x++) {
+                double sum = 0;
+                int count = 0;
+                for (int wy = Math.max(0, y - PATCH + 1); wy <= Math.min(y, windowRows - 1); wy++) {
+                    for (int wx = Math.max(0, x - PATCH + 1); wx <= Math.min(x, windowCols - 1); wx++) {
+                        sum += labels[wy * windowCols + wx];
+                        count++;
+                    }
+                }
+                assertEquals(sum / count, grid.get(y, x), 1e-4, "pixel " + y + "," + x);
+            }
+        }
+    }
+
+    // Кожне вікно з кроком 1 як окремий рядок ознак у порядку ImagePatchExtractor
+    private static Mat allWindows(Mat image, int windowRows, int windowCols) {
+        Mat windows = new Mat(windowRows * windowCols, PATCH * PATCH, opencv_core.CV_32F);
+        float[] values = new float[PATCH * PATCH];
+        try (UByteIndexer source = image.createIndexer(); FloatIndexer target = windows.createIndexer()) {
+            for (int wy = 0; wy < windowRows; wy++) {
+                for (int wx = 0; wx < windowCols; wx++) {
+                    for (int dy = 0; dy < PATCH; dy++) {
+                        for (int dx = 0; dx < PATCH; dx++) {
+                            values[dy * PATCH + dx] = source.get(wy + dy, wx + dx);
+                        }
+                    }
+                    target.put((long) wy * windowCols + wx, 0, values);
+                }
+            }
+        }
+        return windows;
+    }
+
+    private static Mat randomImage(Random random, int rows, int cols, int channels) {
+        Mat image = new Mat(rows, cols, opencv_core.CV_8UC(channels));
+        byte[] pixels = new byte[rows * cols * channels];
+        random.nextBytes(pixels);
+        image.data().put(pixels);
+        return image;
+    }
+
+    private static LinearSvmScorer randomScorer(Random random, int classCount, int featureLength) {
+        int pairs = classCount * (classCount - 1) / 2;
+        float[] values = new float[pairs * featureLength];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) random.nextGaussian() * 1e-3f;
+        }
+        float[] rho = new float[pairs];
+        for (int pair = 0; pair < pairs; pair++) {
+            rho[pair] = (float) random.nextGaussian() * 0.1f;
+        }
+        int[] classLabels = new int[classCount];
+        for (int c = 0; c < classCount; c++) {
+            classLabels[c] = c;
+        }
+
+        Mat weights = new Mat(pairs, featureLength, opencv_core.CV_32F);
+        new FloatPointer(weights.data()).put(values);
+        return LinearSvmScorer.of(weights, rho, classLabels, null);
+    }
+}
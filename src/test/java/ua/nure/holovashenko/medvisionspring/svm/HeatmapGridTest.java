@@ -0,0 +1,122 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.indexer.UByteIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Перевіряє усереднення патчів, що перекриваються, у клітинках сітки
+ * та нормалізацію сітки під час побудови зображення теплової карти.
+ */
+class HeatmapGridTest {
+
+    private static final int PATCH = ImagePatchExtractor.PATCH_SIZE;
+    private static final int STEP = ImagePatchExtractor.STEP_SIZE;
+
+    @Test
+    void cellsAverageAllOverlappingPatches() {
+        assertAveragesMatchBruteForce(256, 256);
+    }
+
+    @Test
+    void cellsOutsideAnyPatchStayZero() {
+        // 100x80: по вертикалі два патчі, по горизонталі один, остання клітинка кожного рядка не покрита
+        HeatmapGrid grid = assertAveragesMatchBruteForce(100, 80);
+
+        assertEquals(4, grid.rows());
+        assertEquals(3, grid.cols());
+        for (int row = 0; row < grid.rows(); row++) {
+            assertEquals(0f, grid.get(row, 2), "row " + row);
+        }
+    }
+
+    @Test
+    void predictionsAndValuesBuildTheSameGrid() {
+        int[] predictions = {0, 1, 2, 1, 0, 2, 2, 1, 0};
+        float[] values = new float[predictions.length];
+        for (int i = 0; i < predictions.length; i++) {
+            values[i] = predictions[i];
+        }
+
+        assertArrayEquals(HeatmapGrid.fromPatchValues(values, 128, 128).values(),
+                HeatmapGrid.fromPatchPredictions(predictions, 128, 128).values());
+    }
+
+    @Test
+    void heatmapSpansTheFullColorRange() {
+        HeatmapGrid grid = new HeatmapGrid(2, 2, STEP, new float[]{1.5f, 2f, 2f, 3.5f}, 2 * STEP, 2 * STEP);
+
+        Mat heatmap = new HeatmapGenerator().generateHeatmap(null, grid);
+
+        assertEquals(2 * STEP, heatmap.rows());
+        assertEquals(2 * STEP, heatmap.cols());
+        Mat expected = colorMapOf(0, 64, 255);
+        assertPixel(expected, 0, heatmap, 0, 0);
+        assertPixel(expected, 1, heatmap, 0, STEP);
+        assertPixel(expected, 1, heatmap, STEP, 0);
+        assertPixel(expected, 2, heatmap, 2 * STEP - 1, 2 * STEP - 1);
+    }
+
+    private static HeatmapGrid assertAveragesMatchBruteForce(int height, int width) {
+        int patchRows = ImagePatchExtractor.gridSize(height);
+        int patchCols = ImagePatchExtractor.gridSize(width);
+        float[] patchValues = new float[patchRows * patchCols];
+        for (int i = 0; i < patchValues.length; i++) {
+            patchValues[i] = i * 0.5f + 1;
+        }
+
+        HeatmapGrid grid = HeatmapGrid.fromPatchValues(patchValues, height, width);
+
+        for (int row = 0; row < grid.rows(); row++) {
+            for (int col = 0; col < grid.cols(); col++) {
+                float sum = 0;
+                int count = 0;
+                for (int py = 0; py < patchRows; py++) {
+                    for (int px = 0; px < patchCols; px++) {
+                        if (covers(py, row) && covers(px, col)) {
+                            sum += patchValues[py * patchCols + px];
+                            count++;
+                        }
+                    }
+                }
+                float expected = count > 0 ? sum / count : 0f;
+                assertEquals(expected, grid.get(row, col), 1e-6, "cell " + row + "," + col);
+            }
+        }
+        return grid;
+    }
+
+    // Патч з індексом patch покриває клітинку, якщо їхні відрізки пікселів перетинаються
+    private static boolean covers(int patch, int cell) {
+        int patchStart = patch * STEP;
+        int cellStart = cell * STEP;
+        return cellStart < patchStart + PATCH && patchStart < cellStart + STEP;
+    }
+
+    private static Mat colorMapOf(int... levels) {
+        Mat gray = new Mat(1, levels.length, opencv_core.CV_8U);
+        try (UByteIndexer indexer = gray.createIndexer()) {
+            for (int i = 0; i < levels.length; i++) {
+                indexer.put(0, i, levels[i]);
+            }
+        }
+        Mat colors = new Mat();
+        opencv_imgproc.applyColorMap(gray, colors, opencv_imgproc.COLORMAP_JET);
+        return colors;
+    }
+
+    private static void assertPixel(Mat expected, int level, Mat actual, int row, int col) {
+        try (UByteIndexer expectedIndexer = expected.createIndexer();
+             UByteIndexer actualIndexer = actual.createIndexer()) {
+            for (int channel = 0; channel < 3; channel++) {
+                assertEquals(expectedIndexer.get(0, level, channel), actualIndexer.get(row, col, channel),
+                        "pixel " + row + "," + col + " channel " + channel);
+            }
+        }
+    }
+}
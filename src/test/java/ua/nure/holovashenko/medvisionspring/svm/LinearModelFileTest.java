@@ -0,0 +1,145 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.IntIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_ml;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_ml.SVM;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Перевіряє запис і читання бінарного файлу ваг: відображена в пам'ять модель дає ті самі
+ * значення, що й скорер, побудований з SVM, а пошкоджені файли відхиляються.
+ */
+class LinearModelFileTest {
+
+    private static final int FEATURES = 300;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripScoresLikeScorerFromSvm() throws IOException {
+        assertRoundTrip(3, null);
+    }
+
+    @Test
+    void roundTripKeepsFoldedPca() throws IOException {
+        assertRoundTrip(4, 16);
+    }
+
+    @Test
+    void rejectsForeignFile() throws IOException {
+        Path path = directory.resolve("foreign.bin");
+        Files.write(path, "<?xml version=\"1.0\"?><opencv_storage/>".getBytes());
+
+        assertRejected(path, "Not a linear SVM model file");
+    }
+
+    @Test
+    void rejectsUnsupportedFormatVersion() throws IOException {
+        Path path = writeModel("future.bin");
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(Integer.BYTES, 2);
+        Files.write(path, bytes);
+
+        assertRejected(path, "Unsupported linear SVM model format 2");
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        Path path = writeModel("truncated.bin");
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - Float.BYTES));
+
+        assertRejected(path, "Corrupted");
+    }
+
+    @Test
+    void rejectsTruncatedHeader() throws IOException {
+        Path path = writeModel("header.bin");
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, 3 * Integer.BYTES));
+
+        assertRejected(path, "Not a linear SVM model file");
+    }
+
+    private void assertRoundTrip(int classCount, Integer pcaComponents) throws IOException {
+        Random random = new Random(classCount);
+        Mat samples = samples(random, 60 * classCount, classCount);
+        PcaProjection pca = pcaComponents != null ? PcaProjection.fit(samples, pcaComponents, 4096) : null;
+        SVM model = train(pca != null ? pca.project(samples) : samples, classCount);
+        LinearSvmScorer expected = LinearSvmScorer.of(model, pca);
+
+        Path path = directory.resolve("model-" + classCount + LinearModelFile.EXTENSION);
+        LinearModelFile.write(path, expected);
+        LinearSvmScorer mapped = LinearModelFile.read(path);
+
+        Mat unseen = samples(random, 50, classCount);
+        assertArrayEquals(expected.classLabels(), mapped.classLabels());
+        assertArrayEquals(expected.rho(), mapped.rho());
+        float[][] expectedDecisions = expected.decisionValues(unseen);
+        float[][] mappedDecisions = mapped.decisionValues(unseen);
+        for (int i = 0; i < expectedDecisions.length; i++) {
+            assertArrayEquals(expectedDecisions[i], mappedDecisions[i], "sample " + i);
+        }
+        assertArrayEquals(expected.predict(unseen), mapped.predict(unseen));
+    }
+
+    private Path writeModel(String name) throws IOException {
+        Random random = new Random(1);
+        Path path = directory.resolve(name);
+        LinearModelFile.write(path, LinearSvmScorer.of(train(samples(random, 120, 2), 2), null));
+        return path;
+    }
+
+    private static void assertRejected(Path path, String message) {
+        IOException e = assertThrows(IOException.class, () -> LinearModelFile.read(path));
+        assertTrue(e.getMessage().startsWith(message), e.getMessage());
+    }
+
+    private static SVM train(Mat samples, int classCount) {
+        Mat labels = new Mat(samples.rows(), 1, opencv_core.CV_32S);
+        try (IntIndexer indexer = labels.createIndexer()) {
+            for (int i = 0; i < samples.rows(); i++) {
+                indexer.put(i, 0, i % classCount);
+            }
+        }
+
+        SVM model = SVM.create();
+        model.setKernel(SVM.LINEAR);
+        model.setType(SVM.C_SVC);
+        model.setC(2.67);
+        model.train(samples, opencv_ml.ROW_SAMPLE, labels);
+        return model;
+    }
+
+    // Клас рядка i — i % classCount, зі зсувом середнього у своїй частині ознак
+    private static Mat samples(Random random, int rows, int classCount) {
+        Mat samples = new Mat(rows, FEATURES, opencv_core.CV_32F);
+        try (FloatIndexer indexer = samples.createIndexer()) {
+            for (int i = 0; i < rows; i++) {
+                int label = i % classCount;
+                for (int j = 0; j < FEATURES; j++) {
+                    float shift = j * classCount / FEATURES == label ? 1.5f : 0f;
+                    indexer.put(i, j, (float) random.nextGaussian() + shift);
+                }
+            }
+        }
+        return samples;
+    }
+}
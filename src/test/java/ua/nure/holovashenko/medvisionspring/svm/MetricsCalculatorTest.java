@@ -0,0 +1,171 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.IntIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_ml.SVM;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Перевіряє стратифікований розподіл на блоки і перехресну перевірку: кожен зразок
+ * відкладається рівно один раз, а частки класів у блоках відрізняються не більше ніж на 1.
+ */
+class MetricsCalculatorTest {
+
+    private static final int FOLDS = 5;
+
+    private final MetricsCalculator calculator = new MetricsCalculator(null, null, null);
+
+    @Test
+    void foldsKeepClassCountsWithinOne() {
+        List<Integer> labels = labels(53, 31, 17);
+
+        int[] folds = calculator.stratifiedFolds(labels, FOLDS, 42);
+
+        int[][] counts = foldCounts(labels, folds, 3);
+        for (int label = 0; label < counts.length; label++) {
+            assertTrue(spread(counts[label]) <= 1, "class " + label + " is split unevenly");
+        }
+        int[] sizes = new int[FOLDS];
+        for (int fold : folds) {
+            sizes[fold]++;
+        }
+        assertTrue(spread(sizes) <= 1, "folds differ in size by more than one");
+    }
+
+    @Test
+    void classesSmallerThanFoldCountLandInDistinctFolds() {
+        List<Integer> labels = labels(40, 2, 3);
+
+        int[] folds = calculator.stratifiedFolds(labels, FOLDS, 7);
+
+        int[][] counts = foldCounts(labels, folds, 3);
+        for (int label = 1; label < counts.length; label++) {
+            for (int fold = 0; fold < FOLDS; fold++) {
+                assertTrue(counts[label][fold] <= 1, "class " + label + " repeats in fold " + fold);
+            }
+        }
+        for (int fold = 0; fold < FOLDS; fold++) {
+            assertTrue(counts[0][fold] + counts[1][fold] + counts[2][fold] > 0, "fold " + fold + " is empty");
+        }
+    }
+
+    @Test
+    void foldsDependOnlyOnSeed() {
+        List<Integer> labels = labels(20, 12, 9);
+
+        assertArrayEquals(calculator.stratifiedFolds(labels, FOLDS, 3), calculator.stratifiedFolds(labels, FOLDS, 3));
+    }
+
+    @Test
+    void crossValidationHoldsOutEverySampleOnce() {
+        // Мітки 1 і 2: рядок, який не потрапив у жоден відкладений блок, лишився б з передбаченням 0
+        List<Integer> labels = labels(0, 36, 24);
+        Mat samples = separableSamples(labels, new Random(1));
+        Mat labelMat = labelMat(labels);
+        int[] folds = calculator.stratifiedFolds(labels, FOLDS, 42);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            ModelMetrics unbounded = calculator.crossValidate(
+                    MetricsCalculatorTest::linearSvm, samples, labelMat, folds, FOLDS, pool, 0);
+            // Бюджет на одну копію: блоки виконуються по одному
+            long oneFold = samples.total() * samples.elemSize();
+            ModelMetrics bounded = calculator.crossValidate(
+                    MetricsCalculatorTest::linearSvm, samples, labelMat, folds, FOLDS, pool, oneFold);
+
+            for (ModelMetrics metrics : List.of(unbounded, bounded)) {
+                int[][] confusion = metrics.confusionMatrix();
+                assertEquals(0, confusion[1][0] + confusion[2][0], "some rows were never held out");
+                assertEquals(36, confusion[1][1] + confusion[1][2]);
+                assertEquals(24, confusion[2][1] + confusion[2][2]);
+                assertEquals(1.0, metrics.accuracy());
+                assertEquals(Integer.valueOf(FOLDS), metrics.crossValidationFolds());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void memoryBudgetLimitsConcurrentFolds() {
+        Mat samples = new Mat(100, 40, opencv_core.CV_32F);
+        long foldBytes = 80L * 40 * Float.BYTES;
+
+        assertEquals(FOLDS, MetricsCalculator.concurrentFolds(samples, FOLDS, 0));
+        assertEquals(1, MetricsCalculator.concurrentFolds(samples, FOLDS, 1));
+        assertEquals(2, MetricsCalculator.concurrentFolds(samples, FOLDS, 2 * foldBytes + foldBytes / 2));
+        assertEquals(FOLDS, MetricsCalculator.concurrentFolds(samples, FOLDS, 100 * foldBytes));
+    }
+
+    // Зразки кожного класу підряд: classSizes[label] штук мітки label
+    private static List<Integer> labels(int... classSizes) {
+        List<Integer> labels = new ArrayList<>();
+        for (int label = 0; label < classSizes.length; label++) {
+            for (int i = 0; i < classSizes[label]; i++) {
+                labels.add(label);
+            }
+        }
+        return labels;
+    }
+
+    private static int[][] foldCounts(List<Integer> labels, int[] folds, int classCount) {
+        int[][] counts = new int[classCount][FOLDS];
+        for (int i = 0; i < folds.length; i++) {
+            assertTrue(folds[i] >= 0 && folds[i] < FOLDS, "sample " + i + " has fold " + folds[i]);
+            counts[labels.get(i)][folds[i]]++;
+        }
+        return counts;
+    }
+
+    private static int spread(int[] values) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return max - min;
+    }
+
+    // Класи розділені зсувом середнього, тож лінійна модель класифікує відкладені рядки без помилок
+    private static Mat separableSamples(List<Integer> labels, Random random) {
+        Mat samples = new Mat(labels.size(), 8, opencv_core.CV_32F);
+        try (FloatIndexer indexer = samples.createIndexer()) {
+            for (int row = 0; row < labels.size(); row++) {
+                for (int col = 0; col < samples.cols(); col++) {
+                    indexer.put(row, col, (float) random.nextGaussian() * 0.1f + labels.get(row) * 3);
+                }
+            }
+        }
+        return samples;
+    }
+
+    private static Mat labelMat(List<Integer> labels) {
+        Mat labelMat = new Mat(labels.size(), 1, opencv_core.CV_32S);
+        try (IntIndexer indexer = labelMat.createIndexer()) {
+            for (int row = 0; row < labels.size(); row++) {
+                indexer.put(row, 0, labels.get(row));
+            }
+        }
+        return labelMat;
+    }
+
+    private static SVM linearSvm() {
+        SVM model = SVM.create();
+        model.setKernel(SVM.LINEAR);
+        model.setType(SVM.C_SVC);
+        return model;
+    }
+}
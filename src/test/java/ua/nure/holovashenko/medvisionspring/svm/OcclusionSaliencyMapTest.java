@@ -0,0 +1,138 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Перевіряє карту чутливості на синтетичній лінійній моделі, для якої дискримінативна
+ * область відома: закриття цієї області має знижувати бал передбаченого класу,
+ * а карта — вказувати саме на неї.
+ */
+class OcclusionSaliencyMapTest {
+
+    private static final int SIZE = ImageUtils.TARGET_HEIGHT;
+    private static final int WINDOW = ImagePatchExtractor.PATCH_SIZE;
+    private static final Rect LESION = new Rect(128, 64, WINDOW, WINDOW);
+    private static final Rect BACKGROUND = new Rect(16, 176, WINDOW, WINDOW);
+
+    private final FeatureExtractor extractor = FeatureType.RAW.extractor();
+
+    @Test
+    void maskingTheDiscriminativeRegionLowersTheClassScore() {
+        Random random = new Random(5);
+        Mat image = syntheticImage(random);
+        LinearSvmScorer scorer = lesionScorer(random);
+
+        Mat features = extractor.extract(image);
+        int label = scorer.predict(features)[0];
+        assertEquals(0, label);
+
+        double score = classScore(scorer, features);
+        double lesionMasked = classScore(scorer, extractor.extract(masked(image, LESION)));
+        double backgroundMasked = classScore(scorer, extractor.extract(masked(image, BACKGROUND)));
+
+        assertTrue(lesionMasked < score, "masking the lesion must lower the class score");
+        assertTrue(score - lesionMasked > Math.abs(score - backgroundMasked),
+                "masking the lesion must matter more than masking background");
+    }
+
+    @Test
+    void mapPeaksInsideTheDiscriminativeRegion() {
+        Random random = new Random(9);
+        Mat image = syntheticImage(random);
+        LinearSvmScorer scorer = lesionScorer(random);
+        Mat features = extractor.extract(image);
+
+        HeatmapGrid map = OcclusionSaliencyMap.compute(image, features, extractor, scorer, 0);
+
+        int peak = 0;
+        for (int i = 1; i < map.values().length; i++) {
+            if (map.values()[i] > map.values()[peak]) {
+                peak = i;
+            }
+        }
+        int y = peak / map.cols();
+        int x = peak % map.cols();
+        assertTrue(inLesion(y, x), "peak at " + y + "," + x + " is outside the lesion");
+        assertTrue(map.get(y, x) > 0);
+        assertTrue(map.get(BACKGROUND.y() + WINDOW / 2, BACKGROUND.x() + WINDOW / 2) < map.get(y, x));
+    }
+
+    @Test
+    void occlusionDropEqualsContributionSumForRawPixels() {
+        Random random = new Random(13);
+        Mat image = syntheticImage(random);
+        LinearSvmScorer scorer = lesionScorer(random);
+        Mat features = extractor.extract(image);
+
+        // Для сирих пікселів карта внесків точна: закриття вікна знижує бал рівно на суму внесків у ньому
+        float[] weights = new float[scorer.featureLength()];
+        float[][] pairs = scorer.weightRows();
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = pairs[0][i] + pairs[1][i];
+        }
+        Mat contributions = extractor.contributionMap(image, features, weights);
+        double windowSum = opencv_core.sumElems(contributions.apply(LESION)).get(0);
+
+        double drop = classScore(scorer, features) - classScore(scorer, extractor.extract(masked(image, LESION)));
+        assertEquals(windowSum, drop, 1e-3 * Math.abs(windowSum));
+    }
+
+    // Тло з низькою яскравістю і яскрава «патологія» в LESION
+    private static Mat syntheticImage(Random random) {
+        Mat image = new Mat(SIZE, SIZE, opencv_core.CV_8UC1);
+        byte[] pixels = new byte[SIZE * SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                boolean lesion = inLesion(y, x);
+                pixels[y * SIZE + x] = (byte) (lesion ? 200 + random.nextInt(56) : random.nextInt(40));
+            }
+        }
+        image.data().put(pixels);
+        return image;
+    }
+
+    // Три класи; пари (0,1) і (0,2) мають додатні ваги в LESION, тож яскрава область голосує за клас 0
+    private static LinearSvmScorer lesionScorer(Random random) {
+        int featureLength = SIZE * SIZE;
+        float[] values = new float[3 * featureLength];
+        for (int pair = 0; pair < 3; pair++) {
+            for (int i = 0; i < featureLength; i++) {
+                float weight = (float) random.nextGaussian() * 1e-5f;
+                int y = i / SIZE;
+                int x = i % SIZE;
+                boolean lesion = inLesion(y, x);
+                values[pair * featureLength + i] = pair < 2 && lesion ? weight + 1e-4f : weight;
+            }
+        }
+
+        Mat weights = new Mat(3, featureLength, opencv_core.CV_32F);
+        new FloatPointer(weights.data()).put(values);
+        return LinearSvmScorer.of(weights, new float[]{0.2f, 0.2f, 0f}, new int[]{0, 1, 2}, null);
+    }
+
+    // Бал класу 0 — сума його функцій рішення проти інших класів (пари (0,1) і (0,2))
+    private static double classScore(SvmScorer scorer, Mat features) {
+        float[] decisions = scorer.decisionValues(features)[0];
+        return decisions[0] + decisions[1];
+    }
+
+    private static boolean inLesion(int y, int x) {
+        return y >= LESION.y() && y < LESION.y() + LESION.height() && x >= LESION.x() && x < LESION.x() + LESION.width();
+    }
+
+    private static Mat masked(Mat image, Rect region) {
+        Mat copy = image.clone();
+        copy.apply(region).put(Scalar.all(0));
+        return copy;
+    }
+}
@@ -0,0 +1,84 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Порівнює компоненти, знайдені ітераціями підпростору та точною власною задачею,
+ * з PCACompute OpenCV на вибірці з відомим спектром.
+ */
+class PcaProjectionTest {
+
+    private static final int ROWS = 600;
+    private static final int FEATURES = 200;
+    private static final double[] FACTOR_SCALES = {10, 8, 6, 4, 3};
+
+    @Test
+    void subspaceIterationFindsLeadingComponents() {
+        // 2 * (5 + 10) <= min(200, 600): задача зводиться до підпростору 15 векторів
+        assertMatchesOpenCv(5, 5);
+    }
+
+    @Test
+    void exactCovarianceFitFindsLeadingComponents() {
+        // Для 100 компонент підпростір не менший за половину ознак, тож береться коваріація 200 x 200
+        assertMatchesOpenCv(100, FACTOR_SCALES.length);
+    }
+
+    private static void assertMatchesOpenCv(int components, int compared) {
+        Mat data = factorData(new Random(components));
+
+        PcaProjection pca = PcaProjection.fit(data, components, 4096);
+
+        Mat mean = new Mat();
+        Mat expected = new Mat();
+        opencv_core.PCACompute(data, mean, expected, compared);
+        Mat actual = pca.eigenvectors();
+        assertEquals(components, pca.components());
+
+        for (int i = 0; i < compared; i++) {
+            double cosine = Math.abs(actual.row(i).dot(expected.row(i)));
+            assertTrue(cosine > 0.999, "component " + i + " cosine " + cosine);
+        }
+        for (int i = 0; i < pca.components(); i++) {
+            for (int j = 0; j <= i; j++) {
+                assertEquals(i == j ? 1.0 : 0.0, actual.row(i).dot(actual.row(j)), 1e-3, "rows " + i + "," + j);
+            }
+        }
+    }
+
+    // П'ять незалежних факторів зі спадними масштабами вздовж випадкових напрямків плюс слабкий шум
+    private static Mat factorData(Random random) {
+        float[][] directions = new float[FACTOR_SCALES.length][FEATURES];
+        for (float[] direction : directions) {
+            for (int j = 0; j < FEATURES; j++) {
+                direction[j] = (float) random.nextGaussian();
+            }
+        }
+
+        Mat data = new Mat(ROWS, FEATURES, opencv_core.CV_32F);
+        try (FloatIndexer indexer = data.createIndexer()) {
+            for (int i = 0; i < ROWS; i++) {
+                double[] factors = new double[FACTOR_SCALES.length];
+                for (int f = 0; f < factors.length; f++) {
+                    factors[f] = random.nextGaussian() * FACTOR_SCALES[f];
+                }
+                for (int j = 0; j < FEATURES; j++) {
+                    double value = 5 + random.nextGaussian() * 0.5;
+                    for (int f = 0; f < factors.length; f++) {
+                        value += factors[f] * directions[f][j];
+                    }
+                    indexer.put(i, j, (float) value);
+                }
+            }
+        }
+        return data;
+    }
+}
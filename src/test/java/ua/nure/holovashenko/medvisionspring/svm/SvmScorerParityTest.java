@@ -0,0 +1,119 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.IntIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_ml;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_ml.SVM;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Перевіряє, що GEMM- і Vector API-скорери дають ті самі класи, що й SVM::predict
+ * на однакових вхідних даних.
+ */
+class SvmScorerParityTest {
+
+    @Test
+    void multiClassPredictionsMatchOpenCv() {
+        assertParity(3, 1764, null);
+    }
+
+    @Test
+    void binaryPredictionsMatchOpenCv() {
+        assertParity(2, 944, null);
+    }
+
+    @Test
+    void featureLengthNotMultipleOfVectorWidth() {
+        assertParity(4, 1001, null);
+    }
+
+    @Test
+    void pcaFoldedIntoWeightsMatchesProjectedPredict() {
+        assertParity(3, 2000, 32);
+    }
+
+    @Test
+    void vectorDotProductMatchesScalar() {
+        Random random = new Random(7);
+        for (int length : new int[]{1, 7, 16, 33, 1764}) {
+            float[] a = new float[length];
+            float[] b = new float[length];
+            double expected = 0;
+            for (int i = 0; i < length; i++) {
+                a[i] = random.nextFloat() - 0.5f;
+                b[i] = random.nextFloat() - 0.5f;
+                expected += (double) a[i] * b[i];
+            }
+            assertTrue(Math.abs(VectorSvmScorer.dot(a, b) - expected) < 1e-3, "length " + length);
+        }
+    }
+
+    private void assertParity(int classCount, int featureLength, Integer pcaComponents) {
+        Random random = new Random(classCount * 31L + featureLength);
+        Mat samples = syntheticSamples(random, 90 * classCount, featureLength, classCount);
+        Mat labels = labels(samples.rows(), classCount);
+
+        PcaProjection pca = pcaComponents != null ? PcaProjection.fit(samples, pcaComponents, 4096) : null;
+        Mat trainingData = pca != null ? pca.project(samples) : samples;
+
+        SVM model = SVM.create();
+        model.setKernel(SVM.LINEAR);
+        model.setType(SVM.C_SVC);
+        model.setC(2.67);
+        model.train(trainingData, opencv_ml.ROW_SAMPLE, labels);
+
+        Mat unseen = syntheticSamples(random, 60, featureLength, classCount);
+        int[] expected = openCvPredict(model, pca != null ? pca.project(unseen) : unseen);
+
+        LinearSvmScorer gemm = LinearSvmScorer.of(model, pca);
+        assertNotNull(gemm);
+        assertArrayEquals(expected, gemm.predict(unseen), "GEMM scorer");
+        assertArrayEquals(expected, VectorSvmScorer.of(gemm).predict(unseen), "Vector API scorer");
+    }
+
+    private static int[] openCvPredict(SVM model, Mat samples) {
+        Mat results = new Mat();
+        model.predict(samples, results, 0);
+
+        int[] predictions = new int[samples.rows()];
+        try (FloatIndexer indexer = results.createIndexer()) {
+            for (int i = 0; i < predictions.length; i++) {
+                predictions[i] = (int) indexer.get(i, 0);
+            }
+        }
+        return predictions;
+    }
+
+    // Класи відрізняються зсувом середнього на своїй підмножині ознак
+    private static Mat syntheticSamples(Random random, int rows, int cols, int classCount) {
+        Mat samples = new Mat(rows, cols, opencv_core.CV_32F);
+        try (FloatIndexer indexer = samples.createIndexer()) {
+            for (int i = 0; i < rows; i++) {
+                int label = i % classCount;
+                for (int j = 0; j < cols; j++) {
+                    float shift = j % classCount == label ? 0.35f : 0f;
+                    indexer.put(i, j, (float) random.nextGaussian() + shift);
+                }
+            }
+        }
+        return samples;
+    }
+
+    private static Mat labels(int rows, int classCount) {
+        Mat labels = new Mat(rows, 1, opencv_core.CV_32S);
+        try (IntIndexer indexer = labels.createIndexer()) {
+            for (int i = 0; i < rows; i++) {
+                indexer.put(i, 0, (i % classCount) * 2 + 1);
+            }
+        }
+        return labels;
+    }
+}
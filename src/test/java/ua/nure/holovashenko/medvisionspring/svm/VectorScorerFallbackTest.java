@@ -0,0 +1,72 @@
+package ua.nure.holovashenko.medvisionspring.svm;
+
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.IntIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_ml;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_ml.SVM;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Перевіряє вибір скорера реєстром залежно від наявності модуля jdk.incubator.vector.
+ * Окреме виконання surefire (vector-module-absent) запускає цей клас без --add-modules.
+ */
+class VectorScorerFallbackTest {
+
+    @Test
+    void fallsBackToGemmWithoutVectorModule() {
+        assumeFalse(vectorModulePresent(), "jdk.incubator.vector is enabled");
+
+        LinearSvmScorer linear = linearScorer();
+        assertSame(linear, registry().createScorer(SvmModelType.FULL_IMAGE, linear));
+    }
+
+    @Test
+    void usesVectorScorerWithVectorModule() {
+        assumeTrue(vectorModulePresent(), "jdk.incubator.vector is not enabled");
+
+        SvmScorer scorer = registry().createScorer(SvmModelType.FULL_IMAGE, linearScorer());
+        assertInstanceOf(VectorSvmScorer.class, scorer);
+    }
+
+    private static boolean vectorModulePresent() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    private static SvmModelRegistry registry() {
+        SvmModelRegistry registry = new SvmModelRegistry(null);
+        ReflectionTestUtils.setField(registry, "fullImageScorer", "vector");
+        ReflectionTestUtils.setField(registry, "patchScorer", "gemm");
+        return registry;
+    }
+
+    private static LinearSvmScorer linearScorer() {
+        Random random = new Random(3);
+        Mat samples = new Mat(40, 16, opencv_core.CV_32F);
+        Mat labels = new Mat(40, 1, opencv_core.CV_32S);
+        try (FloatIndexer data = samples.createIndexer(); IntIndexer classes = labels.createIndexer()) {
+            for (int row = 0; row < samples.rows(); row++) {
+                int label = row % 2;
+                classes.put(row, 0, label);
+                for (int col = 0; col < samples.cols(); col++) {
+                    data.put(row, col, (float) random.nextGaussian() + label * 2);
+                }
+            }
+        }
+
+        SVM model = SVM.create();
+        model.setKernel(SVM.LINEAR);
+        model.setType(SVM.C_SVC);
+        model.train(samples, opencv_ml.ROW_SAMPLE, labels);
+        return LinearSvmScorer.of(model, null);
+    }
+}